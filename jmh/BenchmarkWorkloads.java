@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Operations measured by the JMH benchmarks (package benchmarks)
+ * JMH doesn't accept benchmarks in the default package and other packages can't use classes of the default package,
+ * so the benchmarks take the operations from this class by reflection (once, in the setup) and call them as IntSupplier
+ * This class is in the default package, so it can use the package-private hooks of MLP
+ * Every operation returns something computed from its result, so the JIT compiler can't remove it
+ * @author Tonda Kozk
+ *
+ */
+public class BenchmarkWorkloads {
+	private static String[] DATA_FILES = {"cw2DataSet1.csv", "cw2DataSet2.csv"};
+	private static int BATCH_SIZE = 64;
+	private static int FEATURES_NUM = 64;
+	private static int QUERIES_NUM = 500; // number of rows of the other data file used as queries of nearest-neighbour search
+	private static int LEAF_SIZE = 16;
+	private static int K = 5; // number of neighbours for k-NN search
+	private static int LSH_TABLES = 16;
+	private static int LSH_HASHES = 6;
+	private static double LSH_WIDTH = 40;
+
+	/**
+	 * Prepare the operation
+	 * MLP operations train on the data file and classify rows of the other data file,
+	 * batch operations (MLP.forwardBatch, TrainedMLP.classifyBatch) classify all rows of the other data file at once
+	 * @param workload name of the operation - readDataFromFile, MLP.forwardSample, MLP.forwardBatch, MLP.backwardSample,
+	 * MLP.trainSample, MLP.trainEpoch, TrainedMLP.classify, TrainedMLP.classifyBatch, EuclideanDistance.result
+	 * or nearest-neighbour search (see nearestNeighbour)
+	 * @param dataFile one of the data files of the coursework
+	 * @param parameter numbers of neurons in hidden layers separated by spaces for MLP operations,
+	 * number of reference rows for EuclideanDistance.result and nearest-neighbour search, not used by readDataFromFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static IntSupplier create(String workload, String dataFile, String parameter) throws IOException {
+		Coursework coursework = new Coursework();
+		if (workload.equals("readDataFromFile")) {
+			return () -> {
+				try {
+					return coursework.readDataFromFile(dataFile).length;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+		}
+
+		double[][] data = coursework.readDataFromFile(dataFile);
+		double[][] otherData = coursework.readDataFromFile(otherDataFile(dataFile));
+		if (workload.equals("EuclideanDistance.result")) {
+			return euclideanDistance(data, otherData, Integer.parseInt(parameter));
+		}
+		if (workload.startsWith("NearestNeighbour.")) {
+			return nearestNeighbour(workload, data, otherData, Integer.parseInt(parameter));
+		}
+		return mlp(workload, data, otherData, topology(parameter));
+	}
+
+	/**
+	 * Prepare operation of MLP with the given hidden layers
+	 * @param workload
+	 * @param data training data
+	 * @param otherData test data
+	 * @param topology
+	 * @return
+	 */
+	private static IntSupplier mlp(String workload, double[][] data, double[][] otherData, int[] topology) {
+		MLP mlp = new MLP(otherData, data, topology.length, topology, 1.2, 0.9, 389, 170);
+		if (workload.equals("MLP.forwardBatch")) {
+			mlp.setBatchSize(BATCH_SIZE);
+		}
+		mlp.initTraining(); // no threads are started, so finishTraining isn't needed
+		int[] sampleId = {0};
+
+		switch (workload) {
+		case "MLP.forwardSample":
+			return () -> {
+				sampleId[0] = (sampleId[0]+1) % otherData.length;
+				return Double.hashCode(mlp.forwardSample(otherData[sampleId[0]])[0]);
+			};
+		case "MLP.forwardBatch":
+			return () -> {
+				int hash = 0;
+				for (int from = 0; from < otherData.length; from += BATCH_SIZE) {
+					hash += Double.hashCode(mlp.forwardBatch(otherData, from, Math.min(BATCH_SIZE, otherData.length - from))[0]);
+				}
+				return hash;
+			};
+		case "MLP.backwardSample":
+			// the layers of one sample are computed once, the backward pass is repeated for them
+			mlp.forwardSample(data[0]);
+			return () -> {
+				mlp.backwardSample(data[0]);
+				return sampleId[0]++;
+			};
+		case "MLP.trainSample":
+			return () -> {
+				mlp.trainSample(data[sampleId[0]]);
+				sampleId[0] = (sampleId[0]+1) % data.length;
+				return sampleId[0];
+			};
+		case "MLP.trainEpoch":
+			return () -> mlp.trainEpoch();
+		case "TrainedMLP.classify":
+			TrainedMLP model = mlp.getModel();
+			return () -> {
+				sampleId[0] = (sampleId[0]+1) % otherData.length;
+				return model.classify(otherData[sampleId[0]]);
+			};
+		case "TrainedMLP.classifyBatch":
+			TrainedMLP batchModel = mlp.getModel();
+			int[] results = new int[otherData.length];
+			return () -> {
+				batchModel.classifyBatch(otherData, results);
+				return results[0];
+			};
+		default:
+			throw new IllegalArgumentException("Unknown workload: "+workload);
+		}
+	}
+
+	/**
+	 * Prepare Euclidean distance classification with reference set made from the data
+	 * (copies of the rows with pixels changed by -1, 0 or 1)
+	 * @param data
+	 * @param otherData test data
+	 * @param size number of rows of the reference set
+	 * @return
+	 */
+	private static IntSupplier euclideanDistance(double[][] data, double[][] otherData, int size) {
+		double[][] reference = augment(data, size, new Random(1));
+		EuclideanDistance euclideanDistance = new EuclideanDistance();
+		int[] testId = {0};
+		return () -> {
+			testId[0] = (testId[0]+1) % otherData.length;
+			return (int)euclideanDistance.result(otherData[testId[0]], reference);
+		};
+	}
+
+	/**
+	 * Prepare nearest-neighbour search in reference set made from the data, queries are random rows of the other data
+	 * Exact searches are checked against the linear scan when they are prepared, recall of LSH is printed
+	 * @param workload NearestNeighbour.linearScan, NearestNeighbour.normScan (rows ordered by norm), NearestNeighbour.vpTree,
+	 * NearestNeighbour.vpTreeKnn (K nearest rows), NearestNeighbour.vpTreeBuild (building of the tree) or NearestNeighbour.lsh
+	 * @param data
+	 * @param otherData
+	 * @param size number of rows of the reference set
+	 * @return
+	 */
+	private static IntSupplier nearestNeighbour(String workload, double[][] data, double[][] otherData, int size) {
+		Random random = new Random(1);
+		double[][] reference = augment(data, size, random);
+		double[][] queries = new double[Math.min(QUERIES_NUM, otherData.length)][];
+		for (int queryId = 0; queryId < queries.length; queryId++) {
+			queries[queryId] = otherData[random.nextInt(otherData.length)];
+		}
+		int[] queryId = {0};
+
+		switch (workload) {
+		case "NearestNeighbour.linearScan":
+			return () -> {
+				queryId[0] = (queryId[0]+1) % queries.length;
+				return linearScan(queries[queryId[0]], reference);
+			};
+		case "NearestNeighbour.normScan":
+		case "NearestNeighbour.vpTree":
+		case "NearestNeighbour.lsh":
+			EuclideanDistance search = new EuclideanDistance();
+			if (workload.equals("NearestNeighbour.vpTree")) {
+				search.useVPTree(LEAF_SIZE);
+			} else if (workload.equals("NearestNeighbour.lsh")) {
+				search.useLSH(LSH_TABLES, LSH_HASHES, LSH_WIDTH);
+			}
+			search.prepare(reference);
+			int found = 0;
+			for (double[] query : queries) {
+				int nearest = search.nearest(query, reference);
+				if (nearest >= 0 && distance(query, reference[nearest]) == distance(query, reference[linearScan(query, reference)])) {
+					found++;
+				}
+			}
+			if (workload.equals("NearestNeighbour.lsh")) {
+				System.out.println("LSH recall "+(found*1d/queries.length)+", candidates "+Math.round(search.getAverageCandidates()));
+			} else if (found != queries.length) {
+				throw new IllegalStateException(workload+" didn't find the nearest row for "+(queries.length-found)+" queries");
+			}
+			return () -> {
+				queryId[0] = (queryId[0]+1) % queries.length;
+				return search.nearest(queries[queryId[0]], reference);
+			};
+		case "NearestNeighbour.vpTreeKnn":
+			VPTree tree = new VPTree(reference, FEATURES_NUM, LEAF_SIZE);
+			NeighbourHeap heap = new NeighbourHeap(K);
+			int[] nearestIds = new int[K];
+			double[] nearestDistances = new double[K];
+			for (double[] query : queries) {
+				tree.nearest(query, heap);
+				heap.sorted(nearestIds, nearestDistances);
+				if (distance(query, reference[nearestIds[0]]) != distance(query, reference[linearScan(query, reference)])) {
+					throw new IllegalStateException(workload+" didn't find the nearest row");
+				}
+			}
+			return () -> {
+				queryId[0] = (queryId[0]+1) % queries.length;
+				tree.nearest(queries[queryId[0]], heap);
+				heap.sorted(nearestIds, nearestDistances);
+				return nearestIds[0];
+			};
+		case "NearestNeighbour.vpTreeBuild":
+			return () -> System.identityHashCode(new VPTree(reference, FEATURES_NUM, LEAF_SIZE));
+		default:
+			throw new IllegalArgumentException("Unknown workload: "+workload);
+		}
+	}
+
+	/**
+	 * Return id of the nearest row found by scanning all rows
+	 * @param query
+	 * @param reference
+	 * @return
+	 */
+	private static int linearScan(double[] query, double[][] reference) {
+		double bestDistance = Double.MAX_VALUE;
+		int bestId = -1;
+		for (int dataIndex = 0; dataIndex < reference.length; dataIndex++) {
+			double distance = distance(query, reference[dataIndex]);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				bestId = dataIndex;
+			}
+		}
+		return bestId;
+	}
+
+	/**
+	 * Return squared Euclidean distance of the features of the rows
+	 * @param row1
+	 * @param row2
+	 * @return
+	 */
+	private static double distance(double[] row1, double[] row2) {
+		return Vectors.squaredDistance(row1, row2, FEATURES_NUM);
+	}
+
+	/**
+	 * Make reference set of the given size - the data and their copies with pixels changed by -1, 0 or 1
+	 * @param data
+	 * @param size
+	 * @param random
+	 * @return
+	 */
+	static double[][] augment(double[][] data, int size, Random random) {
+		double[][] reference = new double[size][];
+		for (int rowId = 0; rowId < size; rowId++) {
+			double[] row = data[rowId % data.length].clone();
+			if (rowId >= data.length) {
+				for (int featureId = 0; featureId < FEATURES_NUM; featureId++) {
+					row[featureId] = Math.max(0, Math.min(16, row[featureId] + random.nextInt(3) - 1));
+				}
+			}
+			reference[rowId] = row;
+		}
+		return reference;
+	}
+
+	/**
+	 * Return the data file of the coursework which isn't the given one
+	 * @param dataFile
+	 * @return
+	 */
+	private static String otherDataFile(String dataFile) {
+		if (dataFile.equals(DATA_FILES[0])) {
+			return DATA_FILES[1];
+		}
+		if (dataFile.equals(DATA_FILES[1])) {
+			return DATA_FILES[0];
+		}
+		throw new IllegalArgumentException("Unknown data file: "+dataFile);
+	}
+
+	/**
+	 * Parse numbers of neurons in hidden layers
+	 * @param parameter numbers separated by spaces
+	 * @return
+	 */
+	private static int[] topology(String parameter) {
+		String[] parts = parameter.trim().split(" +");
+		int[] topology = new int[parts.length];
+		for (int layerId = 0; layerId < parts.length; layerId++) {
+			topology[layerId] = Integer.parseInt(parts[layerId]);
+		}
+		return topology;
+	}
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of Euclidean distance classification of one row of the other data file
+ * with reference sets of growing size made from the data file (BenchmarkWorkloads.augment)
+ * @author Tonda Kozk
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EuclideanDistanceBenchmark {
+	@Param({"cw2DataSet1.csv", "cw2DataSet2.csv"})
+	public String dataFile;
+
+	@Param({"2810", "11240", "44960"}) // number of reference rows
+	public String referenceSize;
+
+	private IntSupplier operation;
+
+	@Setup
+	public void setUp() throws Exception {
+		operation = Workloads.create("EuclideanDistance.result", dataFile, referenceSize);
+	}
+
+	@Benchmark
+	public int result() {
+		return operation.getAsInt();
+	}
+}
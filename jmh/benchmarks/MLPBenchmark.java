@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of MLP - forward pass of one sample and of mini-batches, backward pass only, training of one sample
+ * and of one epoch, classification by the trained network
+ * The network is trained on the data file and it classifies rows of the other data file,
+ * batch workloads classify all rows of the other data file in one operation
+ * @author Tonda Kozk
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MLPBenchmark {
+	@Param({"cw2DataSet1.csv", "cw2DataSet2.csv"})
+	public String dataFile;
+
+	@Param({"46 42", "65 66 67", "100"}) // numbers of neurons in hidden layers
+	public String topology;
+
+	@Param({"MLP.forwardSample", "MLP.forwardBatch", "MLP.backwardSample", "MLP.trainSample", "MLP.trainEpoch",
+			"TrainedMLP.classify", "TrainedMLP.classifyBatch"})
+	public String workload;
+
+	private IntSupplier operation;
+
+	@Setup
+	public void setUp() throws Exception {
+		operation = Workloads.create(workload, dataFile, topology);
+	}
+
+	@Benchmark
+	public int run() {
+		return operation.getAsInt();
+	}
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of nearest-neighbour search of one query - linear scan, scan of rows ordered by norm, vantage-point tree
+ * (nearest row, k nearest rows and building of the tree) and approximate search by LSH (its recall is printed in the setup)
+ * Reference sets of growing size are made from the data file, queries are rows of the other data file
+ * @author Tonda Kozk
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NearestNeighbourBenchmark {
+	@Param({"cw2DataSet1.csv", "cw2DataSet2.csv"})
+	public String dataFile;
+
+	@Param({"2810", "11240", "44960", "179840"}) // number of reference rows
+	public String referenceSize;
+
+	@Param({"linearScan", "normScan", "vpTree", "vpTreeKnn", "vpTreeBuild", "lsh"})
+	public String search;
+
+	private IntSupplier operation;
+
+	@Setup
+	public void setUp() throws Exception {
+		operation = Workloads.create("NearestNeighbour."+search, dataFile, referenceSize);
+	}
+
+	@Benchmark
+	public int run() {
+		return operation.getAsInt();
+	}
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.IntSupplier;
+
+/**
+ * Access to the operations of BenchmarkWorkloads - the class is in the default package, so it is loaded by reflection
+ * @author Tonda Kozk
+ *
+ */
+final class Workloads {
+	private Workloads() {
+	}
+
+	/**
+	 * Prepare the operation, see BenchmarkWorkloads.create
+	 * @param workload
+	 * @param dataFile
+	 * @param parameter
+	 * @return
+	 * @throws Exception
+	 */
+	static IntSupplier create(String workload, String dataFile, String parameter) throws Exception {
+		try {
+			return (IntSupplier)Class.forName("BenchmarkWorkloads")
+					.getMethod("create", String.class, String.class, String.class)
+					.invoke(null, workload, dataFile, parameter);
+		} catch (InvocationTargetException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+		}
+	}
+}
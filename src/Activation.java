@@ -0,0 +1,183 @@
+/**
+ * Activation (transfer) function of neurons
+ * The derivative is expressed by the output of the neuron, so it can be computed in backpropagation without the input sum
+ * @author Tonda Kozk
+ *
+ */
+public interface Activation {
+
+	/**
+	 * Return output of the neuron for the sum of its inputs
+	 * @param x
+	 * @return
+	 */
+	double value(double x);
+
+	/**
+	 * Return derivative of the function for the given output of the neuron
+	 * @param output
+	 * @return
+	 */
+	double derivative(double output);
+
+	/**
+	 * Sigmoid function 1 / (1 + e^(-gama*x))
+	 */
+	class Sigmoid implements Activation {
+		private final double gama;
+
+		public Sigmoid(double gama) {
+			this.gama = gama;
+		}
+
+		/**
+		 * Return gama of the function
+		 * @return
+		 */
+		public double getGama() {
+			return gama;
+		}
+
+		@Override
+		public double value(double x) {
+			return 1d / (1d + Math.exp(-gama*x));
+		}
+
+		@Override
+		public double derivative(double output) {
+			return gama * output * (1 - output);
+		}
+	}
+
+	/**
+	 * Sigmoid function computed by linear interpolation in the table of precomputed values
+	 * The difference from the exact sigmoid is never bigger than maxError()
+	 */
+	class TableSigmoid implements Activation {
+		private static final double RANGE = 16; // the table holds values for gama*x in <-RANGE; RANGE>
+		private static final int STEPS = 256; // number of table values for unit interval
+		private static final double[] TABLE = new double[(int)(2*RANGE*STEPS)+1];
+		static {
+			for (int id = 0; id < TABLE.length; id++) {
+				TABLE[id] = 1d / (1d + Math.exp(-(id/(double)STEPS - RANGE)));
+			}
+		}
+
+		private final double gama;
+
+		public TableSigmoid(double gama) {
+			this.gama = gama;
+		}
+
+		/**
+		 * Return gama of the function
+		 * @return
+		 */
+		public double getGama() {
+			return gama;
+		}
+
+		@Override
+		public double value(double x) {
+			double position = (gama*x + RANGE) * STEPS;
+			if (!(position > 0)) { // also NaN
+				return TABLE[0];
+			}
+			if (position >= TABLE.length-1) {
+				return TABLE[TABLE.length-1];
+			}
+			int id = (int)position;
+			double fraction = position - id;
+			return TABLE[id] + (TABLE[id+1] - TABLE[id]) * fraction;
+		}
+
+		@Override
+		public double derivative(double output) {
+			return gama * output * (1 - output);
+		}
+
+		/**
+		 * Return max difference from the exact sigmoid - error of linear interpolation (h^2/8 * max |sigmoid''|)
+		 * plus difference outside the range of the table
+		 * @return
+		 */
+		public static double maxError() {
+			double step = 1d / STEPS;
+			double maxSecondDerivative = 1d / (6*Math.sqrt(3));
+			return step*step/8 * maxSecondDerivative + 1d / (1d + Math.exp(RANGE));
+		}
+	}
+
+	/**
+	 * Hyperbolic tangent tanh(gama*x)
+	 */
+	class Tanh implements Activation {
+		private final double gama;
+
+		public Tanh(double gama) {
+			this.gama = gama;
+		}
+
+		/**
+		 * Return gama of the function
+		 * @return
+		 */
+		public double getGama() {
+			return gama;
+		}
+
+		@Override
+		public double value(double x) {
+			return Math.tanh(gama*x);
+		}
+
+		@Override
+		public double derivative(double output) {
+			return gama * (1 - output*output);
+		}
+	}
+
+	/**
+	 * Rectified linear unit max(0, x)
+	 */
+	class Relu implements Activation {
+		@Override
+		public double value(double x) {
+			return (x > 0)?x:0;
+		}
+
+		@Override
+		public double derivative(double output) {
+			return (output > 0)?1:0;
+		}
+	}
+
+	/**
+	 * Leaky rectified linear unit, x for positive x, slope*x otherwise
+	 */
+	class LeakyRelu implements Activation {
+		private final double slope;
+
+		public LeakyRelu(double slope) {
+			this.slope = slope;
+		}
+
+		/**
+		 * Return slope for negative inputs
+		 * @return
+		 */
+		public double getSlope() {
+			return slope;
+		}
+
+		@Override
+		public double value(double x) {
+			return (x > 0)?x:slope*x;
+		}
+
+		@Override
+		public double derivative(double output) {
+			return (output > 0)?1:slope;
+		}
+	}
+}
@@ -1,7 +1,6 @@
 import java.io.*;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manage the program, create two-fold tests using MLP algorithm and Euclidean distance algorithm
@@ -19,13 +18,25 @@ public class Coursework {
 
 	private double[][] data1;
 	private double[][] data2;
+	private Dataset dataset1; // data sets used instead of data1 and data2 for binary data set files, they aren't widened to doubles
+	private Dataset dataset2;
 
 	public static void main(String[] args) {
 		Coursework coursework = new Coursework();
 		
 		// read data
-		coursework.data1 = coursework.readDataFromFile(coursework.dataPath[0]);
-		coursework.data2 = coursework.readDataFromFile(coursework.dataPath[1]);
+		try {
+			if (coursework.dataPath[0].endsWith(".bin")) {
+				coursework.dataset1 = coursework.readDataset(coursework.dataPath[0]);
+				coursework.dataset2 = coursework.readDataset(coursework.dataPath[1]);
+			} else {
+				coursework.data1 = coursework.readDataFromFile(coursework.dataPath[0]);
+				coursework.data2 = coursework.readDataFromFile(coursework.dataPath[1]);
+			}
+		} catch (IOException ex) {
+			System.out.println("Problem with reading a file: "+ex.getMessage());
+			return;
+		}
 
 		
 		// two fold test using Euclidean distance
@@ -56,7 +67,8 @@ public class Coursework {
 		int stuckIterations = 389;
 		int mutationNum = 170;
 		
-		MLP mlp = new MLP(this.data1, this.data2, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum);	
+		MLP mlp = (dataset1 != null)?new MLP(this.dataset1, this.dataset2, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum)
+				:new MLP(this.data1, this.data2, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum);
 		System.out.println("Training...");
 		double trainResult = mlp.train();
 		System.out.println("Training error rate: "+trainResult);
@@ -66,7 +78,8 @@ public class Coursework {
 		
 		// Second test
 		System.out.println("\n\n -------------- Second test --------------");
-		MLP mlp2 = new MLP(this.data2, this.data1, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum);
+		MLP mlp2 = (dataset1 != null)?new MLP(this.dataset2, this.dataset1, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum)
+				:new MLP(this.data2, this.data1, numberOfLayers, neurons, gama, errorRate, stuckIterations, mutationNum);
 		System.out.println("Training...");
 		trainResult = mlp2.train();
 		System.out.println("Training error rate: "+trainResult);
@@ -81,11 +94,11 @@ public class Coursework {
 		// First test
 		System.out.println(" -------------- First test --------------");
 		EuclideanDistance euDistance = new EuclideanDistance();
-		euDistance.test(this.data1, this.data2);
+		System.out.println("Error rate: "+((dataset1 != null)?euDistance.test(this.dataset1, this.dataset2):euDistance.test(this.data1, this.data2)));
 		
 		// Second test
 		System.out.println("\n\n -------------- Second test --------------");
-		euDistance.test(this.data2, this.data1);
+		System.out.println("Error rate: "+((dataset1 != null)?euDistance.test(this.dataset2, this.dataset1):euDistance.test(this.data2, this.data1)));
 	}
 
 	/**
@@ -96,6 +109,7 @@ public class Coursework {
 		int mutations = 10;
 		int generationsNum = 1000;
 		File resultFile = new File("result-n"+(System.nanoTime())+".txt");
+		File runLogFile = new File("genetic-run.log"); // if the log exists, the run continues from the last generation in the log
         
         // create PrintWriter object
         PrintWriter result = null;
@@ -107,13 +121,32 @@ public class Coursework {
         }
 		
 		
+        // genes of one generation are trained concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		
         System.out.println("Starting genetics");
-		Genetic generation = new Genetic(this.data1, this.data2, result);		
-		generation.sort();
+		Genetic generation = (dataset1 != null)?new Genetic(this.dataset1, this.dataset2, result, executor)
+				:new Genetic(this.data1, this.data2, result, executor);
+		generation.setSuccessiveHalving(new int[] {10, 50, 250}, 3); // hopeless configurations are stopped after a few iterations
+		RunLog runLog = null;
+		boolean resumed = false;
+		try {
+			runLog = new RunLog(runLogFile);
+			resumed = generation.resume(runLog);
+		} catch (IOException ex) {
+			System.out.println("Problem with reading the run log: "+ex.getMessage());
+			System.exit(2);
+		}
+		
+		if (resumed) {
+			System.out.println("Resuming from generation "+generation.generationCounter);
+		} else {
+			generation.sort();
+		}
 		generation.printStatus();
 		
 		// generations
-		for (int generationId = 0; generationId< generationsNum; generationId++) {
+		for (int generationId = generation.generationCounter-1; generationId< generationsNum; generationId++) {
 			System.out.println("\n Generation: "+generationId);
 			generation.nextGeneration();			
 			generation.mutate(mutations);
@@ -122,45 +155,47 @@ public class Coursework {
 		}
 		
 		
+		executor.shutdown();
 		result.close(); // close file
+		try {
+			runLog.close();
+		} catch (IOException ex) {
+			System.out.println("Problem with closing the run log: "+ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Read data from CSV file (malformed lines are skipped and reported) or from binary data set file (*.bin, see DatasetFile)
+	 * Binary data set file is widened to doubles here, use readDataset to use it without copying
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public double[][] readDataFromFile(String fileName) throws IOException {
+		if (fileName.endsWith(".bin")) {
+			return DatasetFile.map(new File(fileName)).toRows();
+		}
+		CsvLoader loader = new CsvLoader(DATA_LINE_LENGTH);
+		double[][] data = loader.load(new File(fileName));
+		for (String error : loader.getErrors()) {
+			System.out.println("Malformed "+error+" in "+fileName);
+		}
+		if (loader.getMalformedNum() > loader.getErrors().size()) {
+			System.out.println("... "+(loader.getMalformedNum()-loader.getErrors().size())+" more malformed lines in "+fileName);
+		}
+		return data;
 	}
 	
 	/**
-	 * Read data from CSV file
+	 * Read data set - binary data set file (*.bin) is mapped to memory without copying, CSV file is read and packed
 	 * @param fileName
 	 * @return
+	 * @throws IOException
 	 */
-	public double[][] readDataFromFile(String fileName) {
-		File dataFile = new File(fileName);
-		ArrayList<double[]> content = new ArrayList<>();
-		
-	    Scanner input = null;
-	    try {
-	        input = new Scanner(dataFile);
-	    } catch (FileNotFoundException ex) {
-	        System.out.println("Problem with reading a file.");
-	        System.exit(0);
-	    }
-	    
-	    // reading the file
-	    while (input.hasNextLine()) { // read line
-	    	double[] contentLine = new double[DATA_LINE_LENGTH];
-	    	
-	    	String line = input.nextLine();
-	    	String[] contentLineString = line.split(",");
-	    	for (int numberIndex = 0; numberIndex < DATA_LINE_LENGTH; numberIndex++) {
-	    		contentLine[numberIndex] = Integer.parseInt(contentLineString[numberIndex]);
-	    	}
-	        content.add(contentLine);
-	    }	    
-	    
-	    input.close(); // close the file
-	    
-	    // convert list to array
-	    double[][] r = new double[content.size()][DATA_LINE_LENGTH];
-	    for(int i = 0; i < content.size(); i++) {
-	    	r[i] = content.get(i);
-	    }
-	    return r;
+	public Dataset readDataset(String fileName) throws IOException {
+		if (fileName.endsWith(".bin")) {
+			return DatasetFile.map(new File(fileName));
+		}
+		return Dataset.fromRows(readDataFromFile(fileName), DATA_LINE_LENGTH-1);
 	}
 }
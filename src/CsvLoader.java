@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loader of CSV files with integer values, the file is read in big blocks and numbers are parsed directly from the bytes
+ * Every line must have the same number of values, malformed lines are skipped and reported (see getErrors)
+ * @author Tonda Kozk
+ *
+ */
+public class CsvLoader {
+	private static int BUFFER_SIZE = 1 << 16;
+	private static int MAX_VALUE = 100000000; // bigger numbers are malformed (so they don't overflow)
+	private static int MAX_REPORTED = 100; // max number of saved error messages
+	private static int INITIAL_ROWS = 256; // the array of rows is doubled when it is full and trimmed at the end
+
+	private int columnsNum;
+	private List<String> errors = new ArrayList<>();
+	private int malformedNum = 0;
+
+	// state of parsing
+	private double[][] rows;
+	private int rowsNum;
+	private double[] row;
+	private int column;
+	private int value;
+	private int digits;
+	private boolean negative;
+	private boolean lineEmpty;
+	private String problem; // problem of the current line, null if there is no problem
+	private long lineNumber;
+
+	/**
+	 * Constructor
+	 * @param columnsNum number of values on a line
+	 */
+	public CsvLoader(int columnsNum) {
+		this.columnsNum = columnsNum;
+	}
+
+	/**
+	 * Load all correct lines of the file
+	 * @param file
+	 * @return rows of the file
+	 * @throws IOException
+	 */
+	public double[][] load(File file) throws IOException {
+		errors.clear();
+		malformedNum = 0;
+		rows = new double[INITIAL_ROWS][];
+		rowsNum = 0;
+		row = new double[columnsNum];
+		column = 0;
+		value = 0;
+		digits = 0;
+		negative = false;
+		lineEmpty = true;
+		problem = null;
+		lineNumber = 1;
+
+		try (InputStream input = new FileInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				for (int position = 0; position < read; position++) {
+					byte character = buffer[position];
+					if (character >= '0' && character <= '9') {
+						value = value*10 + (character - '0');
+						digits++;
+						lineEmpty = false;
+						if (value > MAX_VALUE && problem == null) {
+							problem = "too big number in column "+(column+1);
+							value = 0;
+						}
+					} else if (character == ',') {
+						endValue();
+						lineEmpty = false;
+					} else if (character == '\n') {
+						endLine();
+					} else if (character == '\r' || character == ' ' || character == '\t') {
+						continue;
+					} else if (character == '-' && digits == 0 && !negative) {
+						negative = true;
+						lineEmpty = false;
+					} else {
+						if (problem == null) {
+							problem = "unexpected character '"+(char)(character & 0xFF)+"' in column "+(column+1);
+						}
+						lineEmpty = false;
+					}
+				}
+			}
+		}
+		endLine(); // the last line needn't end by a new line
+
+		double[][] result = (rowsNum == rows.length)?rows:Arrays.copyOf(rows, rowsNum);
+		rows = null;
+		row = null;
+		return result;
+	}
+
+	/**
+	 * Save the parsed value to the row
+	 */
+	private void endValue() {
+		if (problem == null) {
+			if (digits == 0) {
+				problem = "missing value in column "+(column+1);
+			} else if (column >= columnsNum) {
+				problem = "more than "+columnsNum+" values";
+			} else {
+				row[column] = negative ? -value : value;
+			}
+		}
+		column++;
+		value = 0;
+		digits = 0;
+		negative = false;
+	}
+
+	/**
+	 * Save the row if it is correct, report it otherwise, empty lines are skipped
+	 */
+	private void endLine() {
+		if (!lineEmpty) {
+			endValue();
+			if (problem == null && column != columnsNum) {
+				problem = column+" values instead of "+columnsNum;
+			}
+			if (problem == null) {
+				if (rowsNum == rows.length) {
+					rows = Arrays.copyOf(rows, 2*rows.length);
+				}
+				rows[rowsNum++] = row;
+				row = new double[columnsNum];
+			} else {
+				malformedNum++;
+				if (errors.size() < MAX_REPORTED) {
+					errors.add("line "+lineNumber+": "+problem);
+				}
+			}
+		}
+		column = 0;
+		value = 0;
+		digits = 0;
+		negative = false;
+		lineEmpty = true;
+		problem = null;
+		lineNumber++;
+	}
+
+	/**
+	 * Return messages about malformed lines of the last loaded file (at most MAX_REPORTED messages)
+	 * @return
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Return number of malformed lines of the last loaded file
+	 * @return
+	 */
+	public int getMalformedNum() {
+		return malformedNum;
+	}
+}
@@ -0,0 +1,317 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Data set with features stored as bytes in one block (row after row) and results in a separate block
+ * Features of the data are integers 0-16, so a row takes 64 bytes instead of an array of 65 doubles
+ * The blocks are byte buffers, so they can be in the heap or mapped from a file (see DatasetFile)
+ * @author Tonda Kozk
+ *
+ */
+public class Dataset {
+	private static int ABANDON_CHECK = 16; // number of features summed between checks whether the distance is already too big
+
+	private int rowsNum;
+	private int featuresNum;
+	private ByteBuffer features; // features of all rows, row-major
+	private ByteBuffer results;
+	private byte[] featureArray; // array of the features if the block is in the heap, null otherwise (faster access)
+
+	/**
+	 * Create empty data set (all features and results are 0)
+	 * @param rowsNum
+	 * @param featuresNum
+	 * @throws IllegalArgumentException if the numbers are negative or the features don't fit in one block (2 GB)
+	 */
+	public Dataset(int rowsNum, int featuresNum) {
+		this.rowsNum = rowsNum;
+		this.featuresNum = featuresNum;
+		this.features = ByteBuffer.allocate(featuresLength(rowsNum, featuresNum));
+		this.results = ByteBuffer.allocate(rowsNum);
+		this.featureArray = features.array();
+	}
+
+	/**
+	 * Create data set over the given blocks, the blocks are not copied
+	 * @param rowsNum
+	 * @param featuresNum
+	 * @param features rowsNum*featuresNum bytes from the position 0
+	 * @param results rowsNum bytes from the position 0
+	 * @throws IllegalArgumentException if the numbers are negative, the features don't fit in one block or the blocks are too short
+	 */
+	Dataset(int rowsNum, int featuresNum, ByteBuffer features, ByteBuffer results) {
+		if (features.limit() < featuresLength(rowsNum, featuresNum) || results.limit() < rowsNum) {
+			throw new IllegalArgumentException("Blocks are too short for "+rowsNum+" rows of "+featuresNum+" features");
+		}
+		this.rowsNum = rowsNum;
+		this.featuresNum = featuresNum;
+		this.features = features;
+		this.results = results;
+		this.featureArray = (features.hasArray() && features.arrayOffset() == 0)?features.array():null;
+	}
+
+	/**
+	 * Return number of bytes of features of all rows
+	 * @param rowsNum
+	 * @param featuresNum
+	 * @return
+	 * @throws IllegalArgumentException if the numbers are negative or the length is bigger than Integer.MAX_VALUE
+	 */
+	private static int featuresLength(int rowsNum, int featuresNum) {
+		if (rowsNum < 0 || featuresNum < 0) {
+			throw new IllegalArgumentException("Wrong size of the data set: "+rowsNum+" rows of "+featuresNum+" features");
+		}
+		try {
+			return Math.multiplyExact(rowsNum, featuresNum);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Data set is too big: "+rowsNum+" rows of "+featuresNum+" features");
+		}
+	}
+
+	/**
+	 * Return position of the first feature of the row in the block of features
+	 * The length of the block fits in int, so the position of an existing row can't overflow
+	 * @param rowId
+	 * @return
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	private int offset(int rowId) {
+		if (rowId < 0 || rowId >= rowsNum) {
+			throw new IndexOutOfBoundsException("Row "+rowId+" of "+rowsNum);
+		}
+		return rowId*featuresNum;
+	}
+
+	/**
+	 * Create data set from rows of doubles, features are the first featuresNum items of a row, the result is the next item
+	 * @param data
+	 * @param featuresNum
+	 * @return
+	 */
+	public static Dataset fromRows(double[][] data, int featuresNum) {
+		Dataset dataset = new Dataset(data.length, featuresNum);
+		for (int rowId = 0; rowId < data.length; rowId++) {
+			dataset.set(rowId, data[rowId]);
+		}
+		return dataset;
+	}
+
+	/**
+	 * Set features and result of the row, values must be integers 0-127
+	 * @param rowId
+	 * @param row features and the result at the end
+	 */
+	public void set(int rowId, double[] row) {
+		int from = offset(rowId);
+		for (int featureId = 0; featureId < featuresNum; featureId++) {
+			features.put(from + featureId, toByte(row[featureId]));
+		}
+		results.put(rowId, toByte(row[featuresNum]));
+	}
+
+	/**
+	 * Convert value to byte
+	 * @param value
+	 * @return
+	 */
+	private static byte toByte(double value) {
+		if (value < 0 || value > Byte.MAX_VALUE || value != Math.floor(value)) {
+			throw new IllegalArgumentException("Value "+value+" can't be stored in the data set");
+		}
+		return (byte)value;
+	}
+
+	/**
+	 * Return number of rows
+	 * @return
+	 */
+	public int getRowsNum() {
+		return rowsNum;
+	}
+
+	/**
+	 * Return number of features of a row
+	 * @return
+	 */
+	public int getFeaturesNum() {
+		return featuresNum;
+	}
+
+	/**
+	 * Return block of features of all rows (row-major)
+	 * @return
+	 */
+	ByteBuffer getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Return block of results of all rows
+	 * @return
+	 */
+	ByteBuffer getResults() {
+		return results;
+	}
+
+	/**
+	 * Return feature of the row
+	 * @param rowId
+	 * @param featureId
+	 * @return
+	 */
+	public int feature(int rowId, int featureId) {
+		return features.get(offset(rowId) + featureId);
+	}
+
+	/**
+	 * Return result of the row
+	 * @param rowId
+	 * @return
+	 */
+	public int result(int rowId) {
+		return results.get(rowId);
+	}
+
+	/**
+	 * Write the row as doubles (features and the result at the end) to the buffer, so it can be used as input of MLP
+	 * @param rowId
+	 * @param buffer array of at least featuresNum+1 items
+	 * @return the buffer
+	 */
+	public double[] row(int rowId, double[] buffer) {
+		int from = offset(rowId);
+		for (int featureId = 0; featureId < featuresNum; featureId++) {
+			buffer[featureId] = features.get(from + featureId);
+		}
+		buffer[featuresNum] = results.get(rowId);
+		return buffer;
+	}
+
+	/**
+	 * Return all rows as doubles (features and the result at the end)
+	 * @return
+	 */
+	public double[][] toRows() {
+		double[][] data = new double[rowsNum][];
+		for (int rowId = 0; rowId < rowsNum; rowId++) {
+			data[rowId] = row(rowId, new double[featuresNum+1]);
+		}
+		return data;
+	}
+
+	/**
+	 * Return squared Euclidean distance of the row and a row of the other data set (with the same number of features)
+	 * @param rowId
+	 * @param other
+	 * @param otherRowId
+	 * @return
+	 */
+	public int squaredDistance(int rowId, Dataset other, int otherRowId) {
+		return squaredDistance(rowId, other, otherRowId, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Return squared Euclidean distance of the row and a row of the other data set (with the same number of features),
+	 * the computation stops when the distance is bigger than the limit
+	 * @param rowId
+	 * @param other
+	 * @param otherRowId
+	 * @param limit
+	 * @return squared distance or a number bigger than the limit
+	 */
+	public int squaredDistance(int rowId, Dataset other, int otherRowId, int limit) {
+		if (featureArray != null && other.featureArray != null) {
+			return squaredDistance(featureArray, offset(rowId), other.featureArray, other.offset(otherRowId), featuresNum, limit);
+		}
+		return squaredDistance(features, offset(rowId), other.features, other.offset(otherRowId), featuresNum, limit);
+	}
+
+	/**
+	 * Return squared Euclidean distance of a[aFrom, aFrom+length) and b[bFrom, bFrom+length),
+	 * the computation stops when the distance is bigger than the limit
+	 * @param a
+	 * @param aFrom
+	 * @param b
+	 * @param bFrom
+	 * @param length
+	 * @param limit
+	 * @return squared distance or a number bigger than the limit
+	 */
+	private static int squaredDistance(byte[] a, int aFrom, byte[] b, int bFrom, int length, int limit) {
+		int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int id = 0;
+		while (id < length) {
+			int to = Math.min(id + ABANDON_CHECK, length);
+			for (; id + 3 < to; id += 4) {
+				int diff0 = a[aFrom + id] - b[bFrom + id];
+				int diff1 = a[aFrom + id+1] - b[bFrom + id+1];
+				int diff2 = a[aFrom + id+2] - b[bFrom + id+2];
+				int diff3 = a[aFrom + id+3] - b[bFrom + id+3];
+				sum0 += diff0 * diff0;
+				sum1 += diff1 * diff1;
+				sum2 += diff2 * diff2;
+				sum3 += diff3 * diff3;
+			}
+			for (; id < to; id++) {
+				int diff = a[aFrom + id] - b[bFrom + id];
+				sum0 += diff * diff;
+			}
+			int sum = (sum0 + sum1) + (sum2 + sum3);
+			if (sum > limit) {
+				return sum;
+			}
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Same as the distance of arrays, for blocks which aren't in the heap (mapped files)
+	 * @param a
+	 * @param aFrom
+	 * @param b
+	 * @param bFrom
+	 * @param length
+	 * @param limit
+	 * @return squared distance or a number bigger than the limit
+	 */
+	private static int squaredDistance(ByteBuffer a, int aFrom, ByteBuffer b, int bFrom, int length, int limit) {
+		int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int id = 0;
+		while (id < length) {
+			int to = Math.min(id + ABANDON_CHECK, length);
+			for (; id + 3 < to; id += 4) {
+				int diff0 = a.get(aFrom + id) - b.get(bFrom + id);
+				int diff1 = a.get(aFrom + id+1) - b.get(bFrom + id+1);
+				int diff2 = a.get(aFrom + id+2) - b.get(bFrom + id+2);
+				int diff3 = a.get(aFrom + id+3) - b.get(bFrom + id+3);
+				sum0 += diff0 * diff0;
+				sum1 += diff1 * diff1;
+				sum2 += diff2 * diff2;
+				sum3 += diff3 * diff3;
+			}
+			for (; id < to; id++) {
+				int diff = a.get(aFrom + id) - b.get(bFrom + id);
+				sum0 += diff * diff;
+			}
+			int sum = (sum0 + sum1) + (sum2 + sum3);
+			if (sum > limit) {
+				return sum;
+			}
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Return squared Euclidean norm of the row
+	 * @param rowId
+	 * @return
+	 */
+	public int squaredNorm(int rowId) {
+		int from = offset(rowId);
+		int sum = 0;
+		for (int featureId = 0; featureId < featuresNum; featureId++) {
+			int value = features.get(from + featureId);
+			sum += value * value;
+		}
+		return sum;
+	}
+}
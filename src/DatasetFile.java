@@ -0,0 +1,129 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary file of a data set which can be mapped to memory, so the data needn't be parsed and more processes share one copy
+ * The file has a header (HEADER_SIZE bytes, big-endian): magic number, version, number of rows, number of features,
+ * type of features, position of the features and position of the results
+ * Features are one byte each, row after row, results are one byte for each row
+ * Run main to convert a CSV file: java DatasetFile input.csv output.bin
+ * @author Tonda Kozk
+ *
+ */
+public class DatasetFile {
+	private static int MAGIC = 0x44534554; // "DSET"
+	private static int VERSION = 1;
+	private static int TYPE_BYTE = 1; // features are signed bytes
+	private static int HEADER_SIZE = 64;
+	private static int DATA_LINE_LENGTH = 65;
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: java DatasetFile input.csv output.bin");
+			System.exit(1);
+		}
+		CsvLoader loader = new CsvLoader(DATA_LINE_LENGTH);
+		try {
+			double[][] data = loader.load(new File(args[0]));
+			for (String error : loader.getErrors()) {
+				System.out.println("Malformed "+error+" in "+args[0]);
+			}
+			write(Dataset.fromRows(data, DATA_LINE_LENGTH-1), new File(args[1]));
+			System.out.println("Converted "+data.length+" rows to "+args[1]);
+		} catch (IOException | IllegalArgumentException ex) {
+			System.out.println("Problem with converting the file: "+ex.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Write the data set to the file
+	 * @param dataset
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(Dataset dataset, File file) throws IOException {
+		int rowsNum = dataset.getRowsNum();
+		long featuresPosition = HEADER_SIZE;
+		long resultsPosition = featuresPosition + (long)rowsNum*dataset.getFeaturesNum();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(rowsNum);
+		header.putInt(dataset.getFeaturesNum());
+		header.putInt(TYPE_BYTE);
+		header.putLong(featuresPosition);
+		header.putLong(resultsPosition);
+		header.clear();
+
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw"); FileChannel channel = output.getChannel()) {
+			output.setLength(0);
+			writeFully(channel, header, 0);
+			writeFully(channel, dataset.getFeatures().duplicate(), featuresPosition);
+			writeFully(channel, dataset.getResults().duplicate(), resultsPosition);
+		}
+	}
+
+	/**
+	 * Write the whole buffer (from position 0 to its limit) to the channel
+	 * @param channel
+	 * @param buffer
+	 * @param position position in the file
+	 * @throws IOException
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Map the file to memory and return the data set over it, the data aren't copied
+	 * The data set is read-only and stays valid after the method returns (the mapping lives as long as the data set)
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Dataset map(File file) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+			long length = channel.size();
+			if (length < HEADER_SIZE) {
+				throw new IOException("File "+file+" is not a data set");
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.BIG_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("File "+file+" is not a data set");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version "+version+" of the data set "+file);
+			}
+			int rowsNum = header.getInt();
+			int featuresNum = header.getInt();
+			int type = header.getInt();
+			long featuresPosition = header.getLong();
+			long resultsPosition = header.getLong();
+			if (type != TYPE_BYTE) {
+				throw new IOException("Unsupported type "+type+" of features in "+file);
+			}
+			long featuresLength = (long)rowsNum*featuresNum;
+			if (rowsNum < 0 || featuresNum <= 0 || featuresLength > Integer.MAX_VALUE
+					|| featuresPosition < HEADER_SIZE || featuresPosition + featuresLength > length
+					|| resultsPosition < HEADER_SIZE || resultsPosition + rowsNum > length) {
+				throw new IOException("Wrong header of the data set "+file);
+			}
+
+			ByteBuffer features = channel.map(FileChannel.MapMode.READ_ONLY, featuresPosition, featuresLength);
+			ByteBuffer results = channel.map(FileChannel.MapMode.READ_ONLY, resultsPosition, rowsNum);
+			return new Dataset(rowsNum, featuresNum, features, results);
+		}
+	}
+}
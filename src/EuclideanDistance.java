@@ -1,3 +1,8 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 
 
 /**
@@ -8,24 +13,421 @@
 public class EuclideanDistance {
 	private static int DATA_LINE_LENGTH = 65;
 	private static int DATA_RESULT_POSITION = 64;
+	private static int ABANDON_CHECK = 16; // number of features summed between checks whether the distance is already too big
+	private static double BOUND_MARGIN = 1e-9; // relative margin of the lower bound (rounding of the norms)
+	private static long LSH_SEED = 1; // seed of the random projections, so the approximate results are repeatable
+	private static int CLASSES_NUM = 10; // results are digits 0-9
+	private static int BATCH_SPLIT = 64; // number of tests classified by one task of the batch
+	private static double WEIGHT_MARGIN = 1e-9; // added to the distance of weighted votes, so the same row doesn't divide by zero
+	
+	// training data prepared for searching
+	private double[][] training; // training data the search structures were made for
+	private int[] order; // ids of training rows sorted by norm
+	private double[] sortedNorms; // norms of training rows in the order
+	private int treeLeafSize = 0; // leaf size of the vantage-point tree, 0 if the tree isn't used
+	private VPTree tree; // vantage-point tree over the training data
+	private int lshTables = 0; // number of LSH tables, 0 if the approximate search isn't used
+	private int lshHashes;
+	private double lshWidth;
+	private LSHIndex lsh; // LSH index over the training data
+	
+	private int k = 1; // number of neighbours which vote
+	private boolean weighted = false; // votes are weighted by 1/distance
+	private Query query; // buffers for single queries
+	
+	
+	/**
+	 * Search the nearest row in a vantage-point tree instead of scanning rows ordered by norm
+	 * @param leafSize max number of rows in a leaf of the tree
+	 */
+	public void useVPTree(int leafSize) {
+		this.treeLeafSize = leafSize;
+		this.lshTables = 0;
+		this.training = null;
+	}
 	
+	/**
+	 * Search the nearest row approximately - only rows with the same locality-sensitive hashes as the test are checked
+	 * More tables give better recall, more hashes and smaller width give less rows to check
+	 * @param tables number of hash tables
+	 * @param hashes number of hashes of one table
+	 * @param width width of a hash bucket
+	 */
+	public void useLSH(int tables, int hashes, double width) {
+		this.lshTables = tables;
+		this.lshHashes = hashes;
+		this.lshWidth = width;
+		this.treeLeafSize = 0;
+		this.training = null;
+	}
+
 
+	/**
+	 * Set number of the nearest neighbours which vote about the result
+	 * @param k
+	 * @param weighted true if votes are weighted by 1/distance, false for majority voting
+	 */
+	public void setK(int k, boolean weighted) {
+		this.k = Math.max(1, k);
+		this.weighted = weighted;
+		this.query = null;
+	}
+	
+	/**
+	 * Buffers for one query - heap of the nearest rows, the rows sorted and votes for the results
+	 * One instance can be used by one thread only, nothing is allocated for a query
+	 */
+	private static class Query {
+		private NeighbourHeap heap;
+		private int[] ids;
+		private double[] distances;
+		private double[] votes = new double[CLASSES_NUM];
+		
+		private Query(int k) {
+			heap = new NeighbourHeap(k);
+			ids = new int[k];
+			distances = new double[k];
+		}
+	}
 
 	/**
-	 * Get distance between two points
+	 * Prepare the training data for searching - build the LSH index or the vantage-point tree if it is used,
+	 * otherwise compute norms of the rows and sort the rows by the norm
+	 * If the training data were already prepared, nothing is done
+	 * @param training
+	 */
+	public void prepare(double[][] training) {
+		if (this.training == training) {
+			return;
+		}
+		
+		tree = null;
+		lsh = null;
+		if (lshTables > 0) {
+			lsh = new LSHIndex(training, DATA_LINE_LENGTH-1, lshTables, lshHashes, lshWidth, new Random(LSH_SEED));
+			this.training = training;
+			return;
+		}
+		if (treeLeafSize > 0) {
+			tree = new VPTree(training, DATA_LINE_LENGTH-1, treeLeafSize);
+			this.training = training;
+			return;
+		}
+		
+		double[] norms = new double[training.length];
+		Integer[] ids = new Integer[training.length];
+		for (int dataIndex = 0; dataIndex < training.length; dataIndex++) {
+			norms[dataIndex] = norm(training[dataIndex]);
+			ids[dataIndex] = dataIndex;
+		}
+		Arrays.sort(ids, (x, y) -> Double.compare(norms[x], norms[y]));
+		
+		order = new int[training.length];
+		sortedNorms = new double[training.length];
+		for (int position = 0; position < training.length; position++) {
+			order[position] = ids[position];
+			sortedNorms[position] = norms[ids[position]];
+		}
+		this.training = training;
+	}
+	
+	/**
+	 * Return Euclidean norm of the features
+	 * @param input
+	 * @return
+	 */
+	private double norm(double[] input) {
+		return Math.sqrt(Vectors.dot(input, 0, input, 0, DATA_LINE_LENGTH-1));
+	}
+	
+	/**
+	 * Get squared distance between two points, the computation stops when the distance is bigger than the limit
 	 * @param input1
 	 * @param input2
-	 * @return
+	 * @param limit
+	 * @return squared distance or a number bigger than the limit
 	 */
-	private double distance(double[] input1, double[] input2) {
+	private double squaredDistance(double[] input1, double[] input2, double limit) {
 		double sum = 0;
-		for (int featureIndex = 0; featureIndex < DATA_LINE_LENGTH-1; featureIndex++) {
-			sum += Math.pow(input2[featureIndex] - input1[featureIndex], 2);
+		for (int from = 0; from < DATA_LINE_LENGTH-1; from += ABANDON_CHECK) {
+			int to = Math.min(from + ABANDON_CHECK, DATA_LINE_LENGTH-1);
+			for (int featureIndex = from; featureIndex < to; featureIndex++) {
+				double diff = input2[featureIndex] - input1[featureIndex];
+				sum += diff * diff;
+			}
+			if (sum > limit) {
+				return sum;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Return id of the nearest training row (the lowest id if more rows have the same distance)
+	 * Rows are visited from the norm closest to the norm of the test, |norm(test) - norm(row)| is a lower bound of the distance,
+	 * so the search stops when the bound is bigger than the best distance found
+	 * In the approximate mode the result needn't be the nearest row
+	 * @param test
+	 * @param training
+	 * @return id of the row or -1 if there is no training data (or no row in the buckets of the test in the approximate mode)
+	 */
+	public int nearest(double[] test, double[][] training) {
+		prepare(training);
+		if (lsh != null) {
+			return lsh.nearest(test);
+		}
+		if (tree != null) {
+			return tree.nearest(test);
+		}
+		double testNorm = norm(test);
+		int high = firstNormPosition(testNorm);
+		int low = high-1;
+		
+		double bestDistance = Double.MAX_VALUE;
+		int bestId = -1;
+		while (low >= 0 || high < order.length) {
+			// take the side with the closer norm
+			int position;
+			if (high >= order.length || (low >= 0 && testNorm - sortedNorms[low] < sortedNorms[high] - testNorm)) {
+				position = low--;
+			} else {
+				position = high++;
+			}
+			double bound = sortedNorms[position] - testNorm;
+			if (bound*bound > bestDistance*(1+BOUND_MARGIN) + BOUND_MARGIN) { // all other rows are even further
+				break;
+			}
+			
+			int dataIndex = order[position];
+			double distance = squaredDistance(test, training[dataIndex], bestDistance);
+			if (distance < bestDistance || (distance == bestDistance && dataIndex < bestId)) {
+				bestDistance = distance;
+				bestId = dataIndex;
+			}
+		}
+		return bestId;
+	}
+	
+	/**
+	 * Return position of the first row with the norm not smaller than the norm of the test
+	 * @param testNorm
+	 * @return
+	 */
+	private int firstNormPosition(double testNorm) {
+		int position = Arrays.binarySearch(sortedNorms, testNorm);
+		if (position < 0) {
+			position = -position-1;
+		}
+		while (position > 0 && sortedNorms[position-1] == testNorm) {
+			position--;
+		}
+		return position;
+	}
+	
+	/**
+	 * Find the nearest training rows, the heap is cleared and then it holds the nearest rows (as many as its size)
+	 * with their Euclidean distances
+	 * The training data must be prepared, the method doesn't change this object, so more threads can call it at once
+	 * @param test
+	 * @param heap
+	 */
+	private void nearest(double[] test, NeighbourHeap heap) {
+		if (lsh != null) {
+			lsh.nearest(test, heap);
+			return;
+		}
+		if (tree != null) {
+			tree.nearest(test, heap);
+			return;
+		}
+		heap.clear();
+		double testNorm = norm(test);
+		int high = firstNormPosition(testNorm);
+		int low = high-1;
+		
+		while (low >= 0 || high < order.length) {
+			// take the side with the closer norm
+			int position;
+			if (high >= order.length || (low >= 0 && testNorm - sortedNorms[low] < sortedNorms[high] - testNorm)) {
+				position = low--;
+			} else {
+				position = high++;
+			}
+			double worst = heap.bound();
+			if (Math.abs(sortedNorms[position] - testNorm) > worst*(1+BOUND_MARGIN) + BOUND_MARGIN) { // all other rows are even further
+				break;
+			}
+			
+			int dataIndex = order[position];
+			double limit = worst*worst;
+			double distance = squaredDistance(test, training[dataIndex], limit);
+			if (distance <= limit) {
+				heap.offer(dataIndex, Math.sqrt(distance));
+			}
+		}
+	}
+	
+	/**
+	 * Find the k nearest training rows (ordered by distance and by id if they have the same distance)
+	 * @param test
+	 * @param training
+	 * @param heap heap for k rows, it holds the nearest rows after the call
+	 * @return number of rows found (k or less if there is less training rows)
+	 */
+	public int nearest(double[] test, double[][] training, NeighbourHeap heap) {
+		prepare(training);
+		nearest(test, heap);
+		return heap.size();
+	}
+	
+	/**
+	 * Classify the test by votes of the nearest training rows, the training data must be prepared
+	 * If more results have the same votes, the result of the nearest of their rows is chosen
+	 * @param test
+	 * @param query buffers of the calling thread
+	 * @return result or -1 if no row was found
+	 */
+	private double vote(double[] test, Query query) {
+		nearest(test, query.heap);
+		int found = query.heap.sorted(query.ids, query.distances);
+		Arrays.fill(query.votes, 0);
+		for (int position = 0; position < found; position++) {
+			int result = (int)training[query.ids[position]][DATA_RESULT_POSITION];
+			query.votes[result] += weighted ? 1 / (query.distances[position] + WEIGHT_MARGIN) : 1;
 		}
 		
-		return Math.pow(sum, 0.5);
+		double bestResult = -1;
+		double bestVotes = 0;
+		for (int position = 0; position < found; position++) {
+			int result = (int)training[query.ids[position]][DATA_RESULT_POSITION];
+			if (query.votes[result] > bestVotes) {
+				bestVotes = query.votes[result];
+				bestResult = result;
+			}
+		}
+		return bestResult;
+	}
+	
+	/**
+	 * Classify all tests, the tests are split among threads of the common fork/join pool
+	 * @param testData
+	 * @param trainingData
+	 * @param results results of the tests (-1 if no training row was found)
+	 */
+	public void resultBatch(double[][] testData, double[][] trainingData, double[] results) {
+		prepare(trainingData);
+		ForkJoinPool.commonPool().invoke(new BatchTask(testData, results, 0, testData.length));
 	}
 	
+	/**
+	 * Task classifying a range of tests, big ranges are split into two tasks
+	 */
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private double[][] testData;
+		private double[] results;
+		private int from;
+		private int to;
+		
+		private BatchTask(double[][] testData, double[] results, int from, int to) {
+			this.testData = testData;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from > BATCH_SPLIT) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(testData, results, from, middle), new BatchTask(testData, results, middle, to));
+				return;
+			}
+			Query taskQuery = new Query(k);
+			for (int testIndex = from; testIndex < to; testIndex++) {
+				results[testIndex] = vote(testData[testIndex], taskQuery);
+			}
+		}
+	}
+	
+	/**
+	 * Return id of the nearest row of the training data set (the lowest id if more rows have the same distance)
+	 * Distances are computed in integers from the bytes of the data sets, the computation of a distance stops when it is bigger
+	 * than the best distance found
+	 * @param testData
+	 * @param testRow
+	 * @param trainingData
+	 * @return id of the row or -1 if there is no training data
+	 */
+	public int nearest(Dataset testData, int testRow, Dataset trainingData) {
+		int bestDistance = Integer.MAX_VALUE;
+		int bestId = -1;
+		for (int dataIndex = 0; dataIndex < trainingData.getRowsNum(); dataIndex++) {
+			int distance = testData.squaredDistance(testRow, trainingData, dataIndex, bestDistance);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				bestId = dataIndex;
+			}
+		}
+		return bestId;
+	}
+	
+	/**
+	 * Get result number from the test row of the data set
+	 * @param testData
+	 * @param testRow
+	 * @param trainingData
+	 * @return
+	 */
+	public double result(Dataset testData, int testRow, Dataset trainingData) {
+		int nearest = nearest(testData, testRow, trainingData);
+		return (nearest < 0)?-1:trainingData.result(nearest);
+	}
+	
+	/**
+	 * Test the algorithm on data sets, the nearest rows are found by the exact search in the bytes of the data sets
+	 * @param trainingData
+	 * @param testData
+	 * @return rate of correctly classified tests
+	 */
+	public double test(Dataset trainingData, Dataset testData) {
+		int correctNum = 0;
+		for (int testRow = 0; testRow < testData.getRowsNum(); testRow++) {
+			if (result(testData, testRow, trainingData) == testData.result(testRow)) {
+				correctNum++;
+			}
+		}
+		return correctNum*1d/testData.getRowsNum();
+	}
+	
+	/**
+	 * Return recall of the search - part of the tests for which the row found is as close as the nearest row found by the exact search
+	 * It is 1 for the exact search, in the approximate mode it shows how much accuracy is lost for the speed
+	 * @param testData
+	 * @param trainingData
+	 * @return
+	 */
+	public double recall(double[][] testData, double[][] trainingData) {
+		EuclideanDistance exact = new EuclideanDistance();
+		int foundNum = 0;
+		for (int testIndex = 0; testIndex < testData.length; testIndex++) {
+			int found = nearest(testData[testIndex], trainingData);
+			int nearest = exact.nearest(testData[testIndex], trainingData);
+			if (found == nearest || (found >= 0 && Vectors.squaredDistance(testData[testIndex], trainingData[found], DATA_LINE_LENGTH-1)
+					== Vectors.squaredDistance(testData[testIndex], trainingData[nearest], DATA_LINE_LENGTH-1))) {
+				foundNum++;
+			}
+		}
+		return foundNum*1d / testData.length;
+	}
+	
+	/**
+	 * Return average number of training rows checked for one test in the approximate mode, 0 in the exact mode
+	 * @return
+	 */
+	public double getAverageCandidates() {
+		return (lsh == null)?0:lsh.getAverageCandidates();
+	}
 	
 	/**
 	 * Get result number from the test
@@ -34,33 +436,34 @@ public class EuclideanDistance {
 	 * @return
 	 */
 	public double result(double[] test, double[][] training) {
-		double bestDistance = Double.MAX_VALUE;
-		double answer = -1;
-		for (int dataIndex = 0; dataIndex < training.length; dataIndex++) {
-			double distance = distance(test, training[dataIndex]);
-			if (distance < bestDistance) {
-				bestDistance = distance;
-				answer = training[dataIndex][DATA_RESULT_POSITION];
+		if (k > 1) {
+			prepare(training);
+			if (query == null) {
+				query = new Query(k);
 			}
+			return vote(test, query);
 		}
-		return answer;
+		int nearest = nearest(test, training);
+		return (nearest < 0)?-1:training[nearest][DATA_RESULT_POSITION];
 	}
 	
 	/**
-	 * Test the algorithm
+	 * Test the algorithm, the tests are classified in parallel
 	 * @param trainingData
 	 * @param testData
+	 * @return rate of correctly classified tests
 	 */
-	public void test(double[][] trainingData, double[][] testData) {
+	public double test(double[][] trainingData, double[][] testData) {
+		double[] results = new double[testData.length];
+		resultBatch(testData, trainingData, results);
+		
 		int errorNum = 0;
 		int correctNum = 0;
 		for (int testIndex = 0; testIndex < testData.length; testIndex++) {
-			double result = result(testData[testIndex], trainingData);
-			
 			// uncomment the next line to see detailed results of the testing
-			// System.out.println("result: "+result+", should be: "+testData[testIndex][DATA_RESULT_POSITION]);
+			// System.out.println("result: "+results[testIndex]+", should be: "+testData[testIndex][DATA_RESULT_POSITION]);
 			
-			if (result == testData[testIndex][DATA_RESULT_POSITION]) {
+			if (results[testIndex] == testData[testIndex][DATA_RESULT_POSITION]) {
 				correctNum++;
 			} else {
 				errorNum++;
@@ -69,7 +472,7 @@ public class EuclideanDistance {
 		
 		//System.out.println("Errors: "+errorNum);
 		//System.out.println("Correct: "+correctNum);
-		System.out.println("Error rate: "+(correctNum*1f/testData.length));
+		return correctNum*1d/testData.length;
 	}
 	
 
@@ -0,0 +1,135 @@
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of evaluations of genes, genes with the same configuration of MLP are evaluated only once
+ * (warm-started genes share the evaluation only if they start from the same networks)
+ * The cache has limited size, the least recently used evaluation is removed when it is full
+ * Trained networks of the genes can be saved with the evaluation, they are softly referenced, so they are released when memory is needed
+ * @author Tonda Kozk
+ *
+ */
+public class FitnessCache {
+	private int maxSize; // max number of evaluations in the cache
+	private double quantum; // double parameters are rounded to multiple of quantum, 0 means no rounding
+
+	private LinkedHashMap<String, Evaluation> evaluations;
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Constructor
+	 * @param maxSize max number of evaluations in the cache
+	 * @param quantum genes whose gama and errorRate differ less than quantum can share evaluation, 0 for exact match
+	 */
+	public FitnessCache(int maxSize, double quantum) {
+		this.maxSize = maxSize;
+		this.quantum = quantum;
+		this.evaluations = new LinkedHashMap<String, Evaluation>(16, 0.75f, true) { // access order - the eldest entry is the least recently used
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Evaluation> eldest) {
+				return size() > FitnessCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Return saved evaluation of the gene or null if the gene configuration wasn't evaluated yet
+	 * @param gene
+	 * @return
+	 */
+	public synchronized Double get(Gene gene) {
+		Evaluation entry = evaluations.get(key(gene));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.evaluation;
+	}
+
+	/**
+	 * Return saved trained networks of the gene
+	 * @param gene
+	 * @return null if the gene configuration wasn't evaluated yet, its networks weren't saved or they were released
+	 */
+	public synchronized TrainedMLP[] getModels(Gene gene) {
+		Evaluation entry = evaluations.get(key(gene));
+		return (entry == null || entry.models == null) ? null : entry.models.get();
+	}
+
+	/**
+	 * Save evaluation of the gene
+	 * @param gene
+	 * @param evaluation
+	 * @param models trained networks of the folds, can be null
+	 */
+	public synchronized void put(Gene gene, double evaluation, TrainedMLP[] models) {
+		evaluations.put(key(gene), new Evaluation(evaluation, models));
+	}
+
+	/**
+	 * Return key of the gene configuration (hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum)
+	 * and of the networks the gene starts from (lineage, 0 for random weights)
+	 * @param gene
+	 * @return
+	 */
+	public String key(Gene gene) {
+		StringBuilder key = new StringBuilder();
+		key.append(gene.hiddenNum).append(';');
+		for (int layerId = 0; layerId < gene.hiddenNum; layerId++) {
+			key.append(gene.neurons[layerId]).append(',');
+		}
+		key.append(';').append(quantize(gene.gama));
+		key.append(';').append(quantize(gene.errorRate));
+		key.append(';').append(gene.stuckIterations);
+		key.append(';').append(gene.mutationNum);
+		key.append(';').append(gene.lineage);
+		return key.toString();
+	}
+
+	/**
+	 * Round the value to multiple of quantum (or return exact bits of the value if there is no quantum)
+	 * @param value
+	 * @return
+	 */
+	private long quantize(double value) {
+		if (quantum <= 0) {
+			return Double.doubleToLongBits(value);
+		}
+		return Math.round(value / quantum);
+	}
+
+	/**
+	 * Return number of evaluations found in the cache
+	 * @return
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return number of evaluations not found in the cache
+	 * @return
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Saved evaluation with the trained networks
+	 */
+	private static class Evaluation {
+		final double evaluation;
+		final SoftReference<TrainedMLP[]> models; // null if the networks weren't saved
+
+		Evaluation(double evaluation, TrainedMLP[] models) {
+			this.evaluation = evaluation;
+			this.models = (models == null) ? null : new SoftReference<>(models);
+		}
+	}
+}
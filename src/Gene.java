@@ -9,6 +9,8 @@ import java.util.Arrays;
 public class Gene implements Comparable<Gene>{
 	double[][] testData;
 	double[][] trainData;
+	Dataset testSet; // data sets used instead of testData and trainData, null if they aren't used
+	Dataset trainSet;
 	int hiddenNum; // number of hidden layers
 	int[] neurons; // numbers of neurons in layers
 	double gama; 
@@ -18,6 +20,21 @@ public class Gene implements Comparable<Gene>{
 	
 	double evaluation = 0; 
 	PrintWriter result; // PrintWriter for saving evaluation result into a file
+	FitnessCache cache; // evaluations of configurations evaluated before, can be null
+	
+	// partial evaluation (successive halving), networks of both folds are kept until the evaluation is finished
+	MLP[] folds;
+	double[] trainResults = new double[2];
+	double[] testResults = new double[2];
+	long[] timesTrain = new long[2];
+	long[] timesTest = new long[2];
+	double partialEvaluation = 0;
+	
+	// Lamarckian evolution - trained networks of the folds are kept and children start training from them
+	boolean keepModels = false; // keep trained networks of the folds when the evaluation is finished
+	TrainedMLP[] models; // trained networks of the folds, null if they aren't kept
+	TrainedMLP[] initialModels; // networks the folds start training from (trained networks of a parent), null for random weights
+	int lineage = 0; // hash of weights of the initial networks (part of the key in the fitness cache), 0 for random weights
 		
 	/**
 	 * Constructor for the gene
@@ -30,8 +47,9 @@ public class Gene implements Comparable<Gene>{
 	 * @param stuckIterations
 	 * @param mutationNum
 	 * @param result
+	 * @param cache
 	 */
-	public Gene(double[][] testData, double[][] trainData, int hiddenNum, int[] neurons, double gama, double errorRate, int stuckIterations, int mutationNum, PrintWriter result) {
+	public Gene(double[][] testData, double[][] trainData, int hiddenNum, int[] neurons, double gama, double errorRate, int stuckIterations, int mutationNum, PrintWriter result, FitnessCache cache) {
 		this.testData = testData;
 		this.trainData = trainData;
 		this.hiddenNum = hiddenNum;
@@ -42,6 +60,26 @@ public class Gene implements Comparable<Gene>{
 		this.stuckIterations = stuckIterations;
 		this.mutationNum = mutationNum;
 		this.result = result;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Constructor for the gene evaluated on data sets (rows aren't widened to doubles in advance)
+	 * @param testData
+	 * @param trainData
+	 * @param hiddenNum
+	 * @param neurons
+	 * @param gama
+	 * @param errorRate
+	 * @param stuckIterations
+	 * @param mutationNum
+	 * @param result
+	 * @param cache
+	 */
+	public Gene(Dataset testData, Dataset trainData, int hiddenNum, int[] neurons, double gama, double errorRate, int stuckIterations, int mutationNum, PrintWriter result, FitnessCache cache) {
+		this((double[][])null, null, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, result, cache);
+		this.testSet = testData;
+		this.trainSet = trainData;
 	}
 	
 	/**
@@ -65,54 +103,167 @@ public class Gene implements Comparable<Gene>{
 	
 	/**
 	 * Evaluate the MLP using 2-fold test	
+	 * If the gene was partially evaluated, training of the folds continues until it is finished
+	 * Genes can be evaluated concurrently, result file is shared by the genes
 	 * @return
 	 */
-	public double evaluate() {
+	public synchronized double evaluate() {
 		// if the MLP was already evaluated, return saved value
 		if (evaluation != 0) {
 			return evaluation;
 		}
+		// if the same configuration (started from the same networks) was already evaluated, use its value
+		if (useCached()) {
+			folds = null;
+			initialModels = null;
+			return evaluation;
+		}
 		
-		// do 2-fold test
+		this.evaluation = trainFolds(Integer.MAX_VALUE);
+		saveResults();
+		
+		if (cache != null) {
+			cache.put(this, evaluation, models);
+		}
+		return evaluation;
+	}
+	
+	/**
+	 * Take the evaluation (and the trained networks if they should be kept) from the cache
+	 * @return false if the gene isn't in the cache
+	 */
+	private boolean useCached() {
+		if (cache == null) {
+			return false;
+		}
+		Double cached = cache.get(this);
+		if (cached == null) {
+			return false;
+		}
+		this.evaluation = cached;
+		if (keepModels) {
+			models = cache.getModels(this); // null if the networks weren't kept or they were released, children start from random weights then
+		}
+		return true;
+	}
+	
+	/**
+	 * Train both folds for at most the given number of iterations (counted from the start of the training, the training
+	 * continues from the previous call) and return sum of results of the folds on test data
+	 * The gene stays not evaluated until evaluate() or stopEvaluation() is called, a fully evaluated gene returns its evaluation
+	 * @param iterations
+	 * @return
+	 */
+	public synchronized double evaluatePartially(int iterations) {
+		if (evaluation != 0) {
+			return evaluation;
+		}
+		if (folds == null && useCached()) {
+			initialModels = null;
+			return evaluation;
+		}
+		
+		partialEvaluation = trainFolds(iterations);
+		return partialEvaluation;
+	}
+	
+	/**
+	 * Stop the partial evaluation, the last partial evaluation becomes evaluation of the gene (it isn't saved into the cache)
+	 * @return
+	 */
+	public synchronized double stopEvaluation() {
+		if (evaluation == 0) {
+			this.evaluation = partialEvaluation;
+			saveResults();
+		}
+		return evaluation;
+	}
+	
+	/**
+	 * Do 2-fold test, folds are trained for at most the given number of iterations in total, networks of the folds
+	 * are kept for the next call until the results are saved
+	 * @param iterations
+	 * @return sum of results of the folds on test data
+	 */
+	private double trainFolds(int iterations) {
 		double[][][][] trainTestData = {
 				{testData, trainData},
 				{trainData, testData}
 		};
 		
-		this.evaluation = 0;
+		double sum = 0;
+		if (folds == null) {
+			folds = new MLP[2];
+			Arrays.fill(timesTrain, 0);
+		}
 		for (int fold = 0; fold < 2; fold++) { // 2 fold test
-			MLP mlp = new MLP(trainTestData[fold][0], trainTestData[fold][1], hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum);
-			// train
-			long startTrain = System.nanoTime();
-			double trainResult = mlp.train();
-			long timeTrain = System.nanoTime()-startTrain;
-			// test
-			long startTest = System.nanoTime();
-			double testResult = mlp.test();
-			long timeTest = System.nanoTime()-startTest;
-			
+			if (folds[fold] == null) {
+				if (testSet != null) {
+					folds[fold] = (fold == 0)?new MLP(testSet, trainSet, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum)
+							:new MLP(trainSet, testSet, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum);
+				} else {
+					folds[fold] = new MLP(trainTestData[fold][0], trainTestData[fold][1], hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum);
+				}
+				if (initialModels != null) {
+					folds[fold].setInitialModel(initialModels[fold]);
+				}
+			}
+			MLP mlp = folds[fold];
+			if (!mlp.isFinished()) {
+				// train
+				long startTrain = System.nanoTime();
+				trainResults[fold] = mlp.train(iterations - mlp.getIterations());
+				timesTrain[fold] += System.nanoTime()-startTrain;
+				// test
+				long startTest = System.nanoTime();
+				testResults[fold] = mlp.test();
+				timesTest[fold] = System.nanoTime()-startTest;
+			}
+			sum += testResults[fold];
+		}
+		return sum;
+	}
+	
+	/**
+	 * Print results of both folds and save them into the result file, networks of the folds are released
+	 * (trained networks are kept if keepModels is set)
+	 */
+	private void saveResults() {
+		if (keepModels && folds != null) {
+			models = new TrainedMLP[2];
+			for (int fold = 0; fold < 2; fold++) {
+				models[fold] = folds[fold].getModel();
+			}
+		}
+		folds = null;
+		initialModels = null;
+		for (int fold = 0; fold < 2; fold++) {
 			//double coef = (trainResult*testResult*1.22057*Math.pow(10, 20))/(timeTrain*timeTest+1.07252*Math.pow(10, 18));
 			
-			String resultString = printEvaluationResult(fold, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, trainResult, timeTrain, timeTest, testResult);
+			String resultString = printEvaluationResult(fold, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, trainResults[fold], timesTrain[fold], timesTest[fold], testResults[fold]);
 			System.out.println(resultString);
 			// save result into file
-			result.println(resultString);
-			result.flush();
-			
-			this.evaluation += testResult;
+			synchronized (result) {
+				result.println(resultString);
+				result.flush();
+			}
 		}
-		
-		
-		
-		//evaluation = (coef+coef2)/2f;
-		
-		return evaluation;
 	}
 	
 	
 	
 	
 
+	/**
+	 * Start training of the gene from the trained networks of the parent (if the parent kept them), layers of different
+	 * sizes are trimmed or padded (see MLP.setInitialModel)
+	 * @param parent
+	 */
+	public void inherit(Gene parent) {
+		this.initialModels = parent.models;
+		this.lineage = (initialModels == null) ? 0 : 31*Arrays.hashCode(initialModels[0].getWeight()) + Arrays.hashCode(initialModels[1].getWeight());
+	}
+	
 	/**
 	 * Compare two genes
 	 * @return
@@ -1,7 +1,17 @@
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Manage generations for genetic algoritm
@@ -10,18 +20,44 @@ import java.util.LinkedList;
  */
 public class Genetic {
 	public static int NUMBER_OF_GENES = 50; // number of genes in one generation
+	public static int CACHE_SIZE = 10000; // max number of evaluations saved in the fitness cache
+	public static double CACHE_QUANTUM = 0; // gama and errorRate are rounded to multiple of this value in the fitness cache, 0 means exact values
 	LinkedList<Gene> genes = new LinkedList<>(); // hold genes of the generations
 	LinkedList<Gene> offSprings = new LinkedList<>(); // children for the next generation
-	Gene bestGene; // the best gene found so far
+	Gene bestGene; // the best gene found so far (a copy with the evaluation), null until the first generation is sorted
+	double sortedBestValue = 0; // evaluation of the best gene of the generation when it was sorted
 	
 	int generationCounter = 1; // generation counter
 	
 	// data for testing and training
 	double[][] testData;
 	double[][] trainData;
+	Dataset testSet; // data sets used instead of testData and trainData, null if they aren't used
+	Dataset trainSet;
 	
 	// PrintWriter for writing results of gene evaluations to the file
 	PrintWriter result;
+	
+	// executor for evaluation of genes, if it is null genes are evaluated one by one
+	ExecutorService executor;
+	
+	// evaluations of already evaluated configurations
+	FitnessCache cache = new FitnessCache(CACHE_SIZE, CACHE_QUANTUM);
+	
+	// random generator, its state is saved to the run log with every generation
+	Random random = new Random();
+	
+	// log of the run, can be null
+	RunLog runLog;
+	
+	// successive halving - all genes are trained for rungs[0] iterations, the best 1/reduction of them continue to rungs[1]
+	// and so on, genes which aren't promoted are evaluated by their last results, the rest is fully evaluated
+	// null means that all genes are fully evaluated
+	int[] rungs;
+	double reduction = 3;
+	
+	// Lamarckian evolution - genes keep their trained networks and children start training from the networks of their parent
+	boolean warmStart = false;
 
 	// min and max values for genes parameters
 //	int hiddenNumMin = 1;
@@ -71,26 +107,132 @@ public class Genetic {
 		initGeneration();
 	}
 	
+	/**
+	 * Constructor, genes of the generation are evaluated concurrently by the executor
+	 * @param testData
+	 * @param trainData
+	 * @param result
+	 * @param executor
+	 */
+	public Genetic(double[][] testData, double[][] trainData, PrintWriter result, ExecutorService executor) {
+		this(testData, trainData, result);
+		this.executor = executor;
+	}
+	
+	/**
+	 * Constructor, genes are evaluated on the data sets (e.g. mapped binary files) and concurrently by the executor
+	 * @param testData
+	 * @param trainData
+	 * @param result
+	 * @param executor
+	 */
+	public Genetic(Dataset testData, Dataset trainData, PrintWriter result, ExecutorService executor) {
+		this.testSet = testData;
+		this.trainSet = trainData;
+		this.result = result;
+		this.executor = executor;
+		
+		initGeneration();
+	}
+	
+	/**
+	 * Evaluate genes by successive halving - train all not evaluated genes briefly and promote only the best of them
+	 * to longer training, evaluation of the other genes is stopped
+	 * @param rungs increasing numbers of training iterations of the rungs, genes promoted from the last rung are fully evaluated
+	 * (null to evaluate all genes fully)
+	 * @param reduction 1/reduction of genes is promoted to the next rung (e.g. 3)
+	 */
+	public void setSuccessiveHalving(int[] rungs, double reduction) {
+		this.rungs = rungs;
+		this.reduction = Math.max(1, reduction);
+	}
+	
+	/**
+	 * Let children start training from the trained weights of their parent (Lamarckian evolution) instead of random weights
+	 * Genes keep trained networks of both folds, so a generation needs more memory, warm start is off by default
+	 * Warm-started genes share evaluations in the fitness cache only with genes started from the same networks,
+	 * so there are fewer cache hits
+	 * @param warmStart
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+	
+	/**
+	 * Continue the run saved in the log - evaluations from the log are added to the fitness cache and if there is
+	 * a complete generation in the log, it replaces the current generation. Evaluations and generations are written to the log from now on.
+	 * @param runLog
+	 * @return true if a generation was loaded from the log
+	 * @throws IOException
+	 */
+	public boolean resume(RunLog runLog) throws IOException {
+		this.runLog = runLog;
+		for (Gene gene : runLog.getEvaluations()) {
+			cache.put(gene, gene.evaluation, null);
+		}
+		if (runLog.getGenerationCounter() == 0) {
+			return false;
+		}
+		
+		genes = new LinkedList<>();
+		for (Gene gene : runLog.getPopulation()) {
+			genes.add(copy(gene));
+		}
+		bestGene = copy(runLog.getBestGene());
+		sortedBestValue = genes.getFirst().evaluation; // the generation was sorted before it was logged
+		generationCounter = runLog.getGenerationCounter();
+		random = runLog.getRandom();
+		return true;
+	}
+	
+	/**
+	 * Create gene with data of this generation and with configuration and evaluation of the given gene
+	 * (gene from the log or gene of the generation, which can be mutated later)
+	 * @param gene
+	 * @return
+	 */
+	private Gene copy(Gene gene) {
+		Gene copy = newGene(gene.hiddenNum, gene.neurons, gene.gama, gene.errorRate, gene.stuckIterations, gene.mutationNum);
+		copy.evaluation = gene.evaluation;
+		copy.lineage = gene.lineage;
+		return copy;
+	}
+	
+	/**
+	 * Create gene with data of this generation (data sets if they are used)
+	 * @param hiddenNum
+	 * @param neurons
+	 * @param gama
+	 * @param errorRate
+	 * @param stuckIterations
+	 * @param mutationNum
+	 * @return
+	 */
+	private Gene newGene(int hiddenNum, int[] neurons, double gama, double errorRate, int stuckIterations, int mutationNum) {
+		if (testSet != null) {
+			return new Gene(testSet, trainSet, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, result, cache);
+		}
+		return new Gene(testData, trainData, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, result, cache);
+	}
+	
 	/**
 	 * Create first generation
 	 */
 	private void initGeneration() {
 		for (int geneId = 0; geneId < NUMBER_OF_GENES; geneId++) {
-			int hiddenNum = (int)(hiddenNumMin+Math.random()*(hiddenNumMax-hiddenNumMin));
+			int hiddenNum = (int)(hiddenNumMin+random.nextDouble()*(hiddenNumMax-hiddenNumMin));
 			int[] neurons = new int[hiddenNum];
 			for (int layerId = 0; layerId < hiddenNum; layerId++) {
-				neurons[layerId] = (int)(neuronNumMin+Math.random()*(neuronNumMax-neuronNumMin));
+				neurons[layerId] = (int)(neuronNumMin+random.nextDouble()*(neuronNumMax-neuronNumMin));
 			}
-			double gama = (gamaMin + Math.random()*(gamaMax-gamaMin));
-			double errorRate = (errorRateMin + Math.random()*(errorRateMax-errorRateMin));
-			int stuckIterations = (int)(stuckIterationMin+Math.random()*(stuckIterationMax-stuckIterationMin));
-			int mutationNum = (int)(stuckIterationMin+Math.random()*(stuckIterationMax-stuckIterationMin));
+			double gama = (gamaMin + random.nextDouble()*(gamaMax-gamaMin));
+			double errorRate = (errorRateMin + random.nextDouble()*(errorRateMax-errorRateMin));
+			int stuckIterations = (int)(stuckIterationMin+random.nextDouble()*(stuckIterationMax-stuckIterationMin));
+			int mutationNum = (int)(stuckIterationMin+random.nextDouble()*(stuckIterationMax-stuckIterationMin));
 			
-			genes.add(new Gene(testData, trainData, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, result));
+			genes.add(newGene(hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum));
 		}
-		
-		// set one gene as the best
-		bestGene = genes.getFirst();
+		// the best gene is set when the generation is sorted
 	}
 		
 		
@@ -141,18 +283,26 @@ public class Genetic {
 		int mutationNum = avg(gene1.mutationNum, gene2.mutationNum);
 				
 		
-		offSprings.add(new Gene(testData, trainData, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, result)); // child from average
-		offSprings.add(new Gene(testData, trainData, gene1.hiddenNum, gene1.neurons, gene1.gama, gene1.errorRate, gene1.stuckIterations, gene1.mutationNum, result)); // the better parent goes to the next generation
+		Gene child = newGene(hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum); // child from average
+		Gene parent = copy(gene1); // the better parent goes to the next generation, it is already evaluated
+		if (warmStart) { // the child starts from the trained networks of the better parent, the copy of the parent keeps them
+			child.inherit(gene1);
+			parent.models = gene1.models;
+		}
+		offSprings.add(child);
+		offSprings.add(parent);
 	}
 	
 	
 	/**
-	 * Print status of the generation
+	 * Print status of the generation, only evaluations done by the last sort are printed
+	 * (genes mutated after the sort aren't evaluated until the next generation)
 	 */
 	public void printStatus() {		
 		System.out.println("Generation NO: "+generationCounter);
-		System.out.println("Best value: "+genes.getFirst().evaluate() + " - "+bestGene.evaluate());
+		System.out.println("Best value: "+sortedBestValue + " - "+bestGene.evaluation);
 		System.out.println(bestGene.hiddenNum+"; "+(Arrays.toString(bestGene.neurons))+"; "+bestGene.gama+"; "+bestGene.errorRate+"; "+bestGene.stuckIterations+"; "+bestGene.mutationNum+"; R:"+bestGene.evaluation);
+		System.out.println("Fitness cache hits: "+cache.getHits()+", misses: "+cache.getMisses());
 		System.out.println("------------------");
 	}
 	
@@ -166,15 +316,173 @@ public class Genetic {
 	}
 	
 	/**
-	 * Sort the list of genes
+	 * Evaluate all genes of the generation which weren't evaluated yet (the best gene is a copy with the evaluation)
+	 * If there is an executor, genes are evaluated concurrently, otherwise one by one
+	 * Each configuration is trained only once, genes with the same configuration get the evaluation from the cache
+	 * (or from the gene with the same configuration if its evaluation was stopped by successive halving)
+	 * (with warm start the genes must start from the same networks too, duplicates get the trained networks of the gene)
+	 */
+	public void evaluate() {
+		List<Gene> notEvaluated = new ArrayList<>();
+		List<Gene> duplicates = new ArrayList<>(); // genes with the same configuration as some gene in notEvaluated
+		HashMap<String, Gene> keys = new HashMap<>();
+		Set<Gene> seen = Collections.newSetFromMap(new IdentityHashMap<>()); // genes already checked (the same object can be in the generation more times)
+		for (Gene gene : genes) {
+			if (gene.evaluation == 0 && seen.add(gene)) {
+				gene.keepModels = warmStart;
+				if (keys.putIfAbsent(cache.key(gene), gene) == null) {
+					notEvaluated.add(gene);
+				} else {
+					duplicates.add(gene);
+				}
+			}
+		}
+		
+		if (rungs != null) {
+			notEvaluated = successiveHalving(notEvaluated);
+		}
+		
+		if (executor == null) {
+			for (Gene gene : notEvaluated) {
+				try {
+					evaluateAndLog(gene);
+				} catch (IOException e) {
+					System.out.println("Problem with writing the run log: "+e.getMessage());
+					System.exit(4);
+				}
+			}
+		} else {
+			evaluateConcurrently(notEvaluated);
+		}
+		
+		for (Gene gene : duplicates) {
+			if (rungs != null) { // evaluation of the gene with the same configuration could be stopped, so it isn't in the cache
+				Gene original = keys.get(cache.key(gene));
+				gene.evaluation = original.evaluation;
+				gene.models = original.models;
+				gene.initialModels = null;
+			} else {
+				gene.evaluate();
+			}
+		}
+	}
+	
+	/**
+	 * Train the genes by rungs of successive halving, genes which aren't promoted get the evaluation from their last rung
+	 * @param notEvaluated
+	 * @return genes promoted from the last rung, they have to be fully evaluated
+	 */
+	private List<Gene> successiveHalving(List<Gene> notEvaluated) {
+		List<Gene> candidates = new ArrayList<>(notEvaluated);
+		for (int rung : rungs) {
+			if (candidates.size() <= 1) {
+				break;
+			}
+			evaluatePartially(candidates, rung);
+			
+			// genes found in the cache are already evaluated
+			List<Gene> ranked = new ArrayList<>();
+			for (Gene gene : candidates) {
+				if (gene.evaluation == 0) {
+					ranked.add(gene);
+				}
+			}
+			ranked.sort((gene1, gene2) -> Double.compare(gene2.partialEvaluation, gene1.partialEvaluation));
+			
+			int promoted = Math.max(1, (int)Math.ceil(ranked.size() / reduction));
+			for (Gene gene : ranked.subList(promoted, ranked.size())) {
+				gene.stopEvaluation();
+			}
+			candidates = new ArrayList<>(ranked.subList(0, promoted));
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Train the genes for the given number of iterations, concurrently if there is an executor
+	 * @param genes
+	 * @param iterations
+	 */
+	private void evaluatePartially(List<Gene> genes, int iterations) {
+		if (executor == null) {
+			for (Gene gene : genes) {
+				gene.evaluatePartially(iterations);
+			}
+			return;
+		}
+		List<Future<Double>> evaluations = new ArrayList<>();
+		for (Gene gene : genes) {
+			evaluations.add(executor.submit(() -> gene.evaluatePartially(iterations)));
+		}
+		try {
+			for (Future<Double> evaluation : evaluations) {
+				evaluation.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("Problem with evaluation: "+e.getMessage());
+			System.exit(3);
+		}
+	}
+	
+	/**
+	 * Evaluate the genes by the executor and wait until all of them are evaluated
+	 * @param notEvaluated
+	 */
+	private void evaluateConcurrently(List<Gene> notEvaluated) {
+		List<Future<Double>> evaluations = new ArrayList<>();
+		for (Gene gene : notEvaluated) {
+			evaluations.add(executor.submit(() -> evaluateAndLog(gene)));
+		}
+		try {
+			for (Future<Double> evaluation : evaluations) {
+				evaluation.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("Problem with evaluation: "+e.getMessage());
+			System.exit(3);
+		}
+	}
+	
+	/**
+	 * Evaluate the gene and save the evaluation into the run log
+	 * @param gene
+	 * @return
+	 * @throws IOException
+	 */
+	private double evaluateAndLog(Gene gene) throws IOException {
+		double evaluation = gene.evaluate();
+		if (runLog != null) {
+			runLog.appendEvaluation(gene);
+		}
+		return evaluation;
+	}
+	
+	/**
+	 * Sort the list of genes, all genes are evaluated before sorting
+	 * If the best gene of the generation is better than the best gene found so far, it becomes the best gene
+	 * The sorted generation is saved into the run log
 	 */
 	public void sort() {
+		evaluate();
 		try {
 		Collections.sort(genes, Collections.reverseOrder());
 		} catch (Exception e) {
 			System.out.println("Problem with sorting");
 			System.exit(3);
 		}
+		sortedBestValue = getBestValue();
+		if (bestGene == null || bestGene.evaluation < sortedBestValue) {
+			bestGene = copy(getBestGene());
+		}
+		
+		if (runLog != null) {
+			try {
+				runLog.appendGeneration(generationCounter, genes, bestGene, random);
+			} catch (IOException e) {
+				System.out.println("Problem with writing the run log: "+e.getMessage());
+				System.exit(4);
+			}
+		}
 	}
 	
 	/**
@@ -184,7 +492,7 @@ public class Genetic {
 		int size = genes.size()/2-1;
 		
 		for (int i = 0; i < size; i++) {			
-			int secondGene = (int)(1 + Math.random()* (genes.size()-1)); // find second gene randomly
+			int secondGene = (int)(1 + random.nextDouble()* (genes.size()-1)); // find second gene randomly
 			crossOver(genes.get(0), genes.get(secondGene));
 			genes.remove(secondGene);
 			genes.remove(0);
@@ -197,12 +505,6 @@ public class Genetic {
 	public void nextGeneration() {
 		sort();
 		
-		// if the best gene of the generation is the better, than the previous best, set new best gene
-		if (bestGene.evaluate() < getBestValue()) {
-			Gene g = getBestGene();
-			bestGene = new Gene(g.testData, g.trainData, g.hiddenNum, g.neurons, g.gama, g.errorRate, g.stuckIterations, g.mutationNum, g.result);
-		}
-		
 		// add two best genes to the next generation
 		offSprings = new LinkedList<>();
 		offSprings.add(genes.get(0));
@@ -223,25 +525,32 @@ public class Genetic {
 	 */
 	public void mutate(int mutationsNum) {
 		for (int mutationId = 0; mutationId < mutationsNum; mutationId++) {
-			Gene gene = genes.get((int)(Math.random()*genes.size())); // gene for the mutation
+			Gene gene = genes.get((int)(random.nextDouble()*genes.size())); // gene for the mutation
 
 			// generate new parameters
-			gene.hiddenNum = (int)(hiddenNumMin+Math.random()*(hiddenNumMax-hiddenNumMin));
+			gene.hiddenNum = (int)(hiddenNumMin+random.nextDouble()*(hiddenNumMax-hiddenNumMin));
 			int[] neuronsNew = new int[gene.hiddenNum];
 			for (int layerId = 0; layerId < gene.hiddenNum; layerId++) {
 				if (layerId < gene.neurons.length) {
 					neuronsNew[layerId] = gene.neurons[layerId];
 				} else {
-					neuronsNew[layerId] = (int)(neuronNumMin+Math.random()*(neuronNumMax));
+					neuronsNew[layerId] = (int)(neuronNumMin+random.nextDouble()*(neuronNumMax));
 				}
 			}
 			gene.neurons = neuronsNew;
 			
-			gene.gama = (gamaMin + Math.random()*(gamaMax-gamaMin));
-			gene.errorRate = (errorRateMin + Math.random()*(errorRateMax-errorRateMin));
-			gene.stuckIterations = (int)(stuckIterationMin+Math.random()*(stuckIterationMax-stuckIterationMin));
-			gene.mutationNum = (int)(mutationNumMin+Math.random()*(mutationNumMax-mutationNumMin));
+			gene.gama = (gamaMin + random.nextDouble()*(gamaMax-gamaMin));
+			gene.errorRate = (errorRateMin + random.nextDouble()*(errorRateMax-errorRateMin));
+			gene.stuckIterations = (int)(stuckIterationMin+random.nextDouble()*(stuckIterationMax-stuckIterationMin));
+			gene.mutationNum = (int)(mutationNumMin+random.nextDouble()*(mutationNumMax-mutationNumMin));
 			gene.evaluation = 0;
+			if (warmStart && gene.models != null) { // the mutated gene starts from its own trained networks
+				gene.inherit(gene);
+			} else {
+				gene.initialModels = null;
+				gene.lineage = 0;
+			}
+			gene.models = null;
 			
 		}
 	}
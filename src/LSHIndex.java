@@ -0,0 +1,199 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Locality-sensitive hashing index for approximate nearest-neighbour search
+ * Every table hashes a row by several random projections h(x) = floor((a.x + b) / width), a has normally distributed items
+ * and b is uniform in <0; width). Close rows get the same hashes with high probability.
+ * A query computes only distances to rows which have the same hashes as the query in at least one table.
+ * Each table is stored as keys sorted in ascending order and ids of the rows with these keys, so a bucket is one range of the arrays.
+ * The index doesn't change after it is built, so more threads can search it at once.
+ * @author Tonda Kozk
+ *
+ */
+public class LSHIndex {
+	private static long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L; // combines hashes of one table into one key
+
+	private double[][] rows;
+	private int dimensions; // number of features used for the distance
+	private int tablesNum;
+	private int hashesNum; // number of hashes of one table
+	private double width; // width of a hash bucket
+
+	private double[] projection; // random vectors, hashesNum*dimensions items for each table
+	private double[] projectionOffset; // random offsets, hashesNum items for each table
+	private long[][] keys; // sorted keys of rows for each table
+	private int[][] ids; // ids of rows in the order of the keys for each table
+
+	private ThreadLocal<int[]> visited; // stamp of the last query of the thread which checked the row, the last item is the current stamp
+	private LongAdder queriesNum = new LongAdder();
+	private LongAdder candidatesNum = new LongAdder();
+
+	/**
+	 * Build the index
+	 * @param rows training data
+	 * @param dimensions number of features (the first dimensions items of a row)
+	 * @param tablesNum number of hash tables
+	 * @param hashesNum number of hashes of one table
+	 * @param width width of a hash bucket
+	 * @param random generator of the projections
+	 */
+	public LSHIndex(double[][] rows, int dimensions, int tablesNum, int hashesNum, double width, Random random) {
+		this.rows = rows;
+		this.dimensions = dimensions;
+		this.tablesNum = tablesNum;
+		this.hashesNum = hashesNum;
+		this.width = width;
+
+		projection = new double[tablesNum*hashesNum*dimensions];
+		for (int id = 0; id < projection.length; id++) {
+			projection[id] = random.nextGaussian();
+		}
+		projectionOffset = new double[tablesNum*hashesNum];
+		for (int id = 0; id < projectionOffset.length; id++) {
+			projectionOffset[id] = random.nextDouble()*width;
+		}
+
+		keys = new long[tablesNum][rows.length];
+		ids = new int[tablesNum][rows.length];
+		long[] rowKeys = new long[rows.length];
+		Integer[] order = new Integer[rows.length];
+		for (int tableId = 0; tableId < tablesNum; tableId++) {
+			for (int rowId = 0; rowId < rows.length; rowId++) {
+				rowKeys[rowId] = key(tableId, rows[rowId]);
+				order[rowId] = rowId;
+			}
+			Arrays.sort(order, (x, y) -> Long.compare(rowKeys[x], rowKeys[y]));
+			for (int position = 0; position < rows.length; position++) {
+				ids[tableId][position] = order[position];
+				keys[tableId][position] = rowKeys[order[position]];
+			}
+		}
+		visited = ThreadLocal.withInitial(() -> new int[rows.length+1]);
+	}
+
+	/**
+	 * Return key of the row in the table - all hashes of the table combined
+	 * @param tableId
+	 * @param row
+	 * @return
+	 */
+	private long key(int tableId, double[] row) {
+		long key = 0;
+		for (int hashId = 0; hashId < hashesNum; hashId++) {
+			int id = tableId*hashesNum + hashId;
+			double value = Vectors.dot(row, 0, projection, id*dimensions, dimensions) + projectionOffset[id];
+			key = key*KEY_MULTIPLIER + (long)Math.floor(value / width);
+		}
+		return key;
+	}
+
+	/**
+	 * Return the first position of the key in the sorted keys or the position where it would be
+	 * @param tableKeys
+	 * @param key
+	 * @return
+	 */
+	private int firstPosition(long[] tableKeys, long key) {
+		int low = 0;
+		int high = tableKeys.length;
+		while (low < high) {
+			int middle = (low+high) >>> 1;
+			if (tableKeys[middle] < key) {
+				low = middle+1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Return id of the nearest row among the rows in the same buckets as the query (the lowest id if more rows have the same distance)
+	 * @param query
+	 * @return id of the row or -1 if no row is in the same bucket
+	 */
+	public int nearest(double[] query) {
+		int[] queryVisited = nextStamp();
+		int stamp = queryVisited[rows.length];
+		long candidates = 0;
+
+		double bestDistance = Double.MAX_VALUE;
+		int bestId = -1;
+		for (int tableId = 0; tableId < tablesNum; tableId++) {
+			long key = key(tableId, query);
+			long[] tableKeys = keys[tableId];
+			int[] tableIds = ids[tableId];
+			for (int position = firstPosition(tableKeys, key); position < tableKeys.length && tableKeys[position] == key; position++) {
+				int rowId = tableIds[position];
+				if (queryVisited[rowId] == stamp) {
+					continue;
+				}
+				queryVisited[rowId] = stamp;
+				candidates++;
+
+				double distance = Vectors.squaredDistance(query, rows[rowId], dimensions);
+				if (distance < bestDistance || (distance == bestDistance && rowId < bestId)) {
+					bestDistance = distance;
+					bestId = rowId;
+				}
+			}
+		}
+		queriesNum.increment();
+		candidatesNum.add(candidates);
+		return bestId;
+	}
+
+	/**
+	 * Find the nearest rows among the rows in the same buckets as the query, the heap is cleared and then it holds
+	 * the nearest rows (as many as its size or less if less rows are in the buckets)
+	 * @param query
+	 * @param heap
+	 */
+	public void nearest(double[] query, NeighbourHeap heap) {
+		heap.clear();
+		int[] queryVisited = nextStamp();
+		int stamp = queryVisited[rows.length];
+		long candidates = 0;
+
+		for (int tableId = 0; tableId < tablesNum; tableId++) {
+			long key = key(tableId, query);
+			long[] tableKeys = keys[tableId];
+			int[] tableIds = ids[tableId];
+			for (int position = firstPosition(tableKeys, key); position < tableKeys.length && tableKeys[position] == key; position++) {
+				int rowId = tableIds[position];
+				if (queryVisited[rowId] == stamp) {
+					continue;
+				}
+				queryVisited[rowId] = stamp;
+				candidates++;
+				heap.offer(rowId, Math.sqrt(Vectors.squaredDistance(query, rows[rowId], dimensions)));
+			}
+		}
+		queriesNum.increment();
+		candidatesNum.add(candidates);
+	}
+
+	/**
+	 * Start a new query of the thread - increase its stamp
+	 * @return stamps of the thread, the last item is the stamp of the query
+	 */
+	private int[] nextStamp() {
+		int[] queryVisited = visited.get();
+		if (++queryVisited[rows.length] == 0) { // the stamp overflowed, old stamps must not match
+			Arrays.fill(queryVisited, 0);
+			queryVisited[rows.length] = 1;
+		}
+		return queryVisited;
+	}
+
+	/**
+	 * Return average number of rows whose distance was computed for one query
+	 * @return
+	 */
+	public double getAverageCandidates() {
+		long queries = queriesNum.sum();
+		return (queries == 0)?0:candidatesNum.sum() / (double)queries;
+	}
+}
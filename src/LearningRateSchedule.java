@@ -0,0 +1,76 @@
+/**
+ * Learning rate for every iteration (epoch) of the training
+ * @author Tonda Kozk
+ *
+ */
+public interface LearningRateSchedule {
+
+	/**
+	 * Return learning rate for the iteration
+	 * @param iteration number of the iteration, from 1
+	 * @return
+	 */
+	double learningRate(int iteration);
+
+	/**
+	 * The same rate for all iterations
+	 */
+	class Constant implements LearningRateSchedule {
+		private final double rate;
+
+		public Constant(double rate) {
+			this.rate = rate;
+		}
+
+		@Override
+		public double learningRate(int iteration) {
+			return rate;
+		}
+	}
+
+	/**
+	 * Rate multiplied by the factor after every given number of iterations
+	 */
+	class Step implements LearningRateSchedule {
+		private final double rate;
+		private final double factor;
+		private final int iterations;
+
+		/**
+		 * Constructor
+		 * @param rate rate of the first iterations
+		 * @param factor e.g. 0.5 to halve the rate
+		 * @param iterations number of iterations with the same rate
+		 */
+		public Step(double rate, double factor, int iterations) {
+			this.rate = rate;
+			this.factor = factor;
+			this.iterations = Math.max(1, iterations);
+		}
+
+		@Override
+		public double learningRate(int iteration) {
+			return rate * Math.pow(factor, (iteration-1) / iterations);
+		}
+	}
+
+	/**
+	 * Rate decreasing exponentially, rate * decay^(iteration-1), but not less than the minimal rate
+	 */
+	class Exponential implements LearningRateSchedule {
+		private final double rate;
+		private final double decay;
+		private final double minRate;
+
+		public Exponential(double rate, double decay, double minRate) {
+			this.rate = rate;
+			this.decay = decay;
+			this.minRate = minRate;
+		}
+
+		@Override
+		public double learningRate(int iteration) {
+			return Math.max(minRate, rate * Math.pow(decay, iteration-1));
+		}
+	}
+}
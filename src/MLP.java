@@ -1,4 +1,15 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Implements Multi-layer perceptron algorithm described here: https://www.root.cz/clanky/biologicke-algoritmy-5-neuronove-site/?ic=serial-box&icc=text-title
@@ -6,6 +17,13 @@ import java.util.Arrays;
  *
  */
 public class MLP {
+	
+	/**
+	 * How the workers of parallel training update the weights
+	 * SYNCHRONOUS - weight changes of all workers are summed and applied together after each mini-batch
+	 * HOGWILD - every worker applies its weight changes directly to the shared weights without locking
+	 */
+	public enum ParallelMode {SYNCHRONOUS, HOGWILD}
 
 	private int inputNum = 64; // number of input perceptrons
 	private int inputNumAll = inputNum + 1;
@@ -16,11 +34,16 @@ public class MLP {
 	private int maxTrainingTime = 1000*60*2;
 	
 	private double errorRate = 0.9989;
-	private double learningRate = 0.05;
+	private double learningRate = 0.05; // learning rate of the current iteration (given by the schedule)
 	private double gama = 1.0;
 	private double treshold = 1;
 	private int hiddenNum = 3; // number of hidden layers
 	private int[] hiddenLayerNeuronsNum = {65, 66, 67, 68, 80}; // numbers of neurons in hidden layers
+	private Activation hiddenActivation = new Activation.Sigmoid(gama); // activation function of hidden layers
+	private Activation outputActivation = new Activation.Sigmoid(gama); // activation function of the output layer
+	private Optimizer optimizer = new Optimizer.Sgd(); // rule for updating weights by their gradient
+	private LearningRateSchedule schedule = new LearningRateSchedule.Constant(learningRate);
+	private TrainedMLP initialModel; // network whose weights are copied at the start of the training, null for random weights
 	
 	// mutation
 	private int stuckIterations = 100;
@@ -32,16 +55,55 @@ public class MLP {
 	
 	private double[][] trainData;
 	private double[][] testData;
+	private SampleSource trainSource; // source of training samples read in chunks (instead of trainData), null if it isn't used
+	private Dataset testSet; // test data set used instead of testData, null if it isn't used
+	private int chunkSize = 4096; // number of samples in one chunk of the source
+	private int prefetchChunks = 4; // number of chunks which can be read in advance
+	private SamplePrefetcher prefetcher;
+	private long passSamples; // number of samples in the last pass over the training data
 	
 	// Training
-	private double[][] entryL; // entry layer 
-	private double[][] entryResult; // expected output for the given inputs
-	private double[][][] weight; // weights of hidden layers
-	private double[][][] previousWeight; // previous weights of hidden layers
+	private double[] entryL; // entry layer - inputs of the current sample and threshold
+	private double[] weight; // weights of all layers (hidden layers first, output layer last) in one row-major block
+	private int[] layerNeuronsNum; // numbers of neurons in hidden layers and in the output layer (last)
+	private int[] weightStride; // number of weights of one neuron in the layer (row length in the block)
+	private int[] weightOffset; // position of the first weight of the layer in the block, the last item is size of the block
 	private double[][] hiddenL; // hidden layers
 	private double[] outLayer; // output layer
-	private double[][] outWeight; // weights of the output layer
-	private double[][] previousOutWeight; // previous weights of the output layer
+	private double[][] layers; // hidden layers and output layer (last), the same arrays as hiddenL and outLayer
+	private TrainedMLP network; // forward pass over the weights being trained (shares the weight block)
+	
+	// state of the training kept between calls of train(iterations)
+	private int trainedIterations; // number of iterations since the network was initialised
+	private long trainedTime; // time of the training in milliseconds
+	private int stuck; // number of iterations without improvement
+	private double previousErrorRate; // part of correctly classified samples in the last iteration
+	private boolean finished; // the training reached the required result, max iterations or max training time (or it was stopped)
+	private TrainingListener.StopReason stopReason; // why the training stopped, null while it runs
+	private double[][] delta; // deltas of hidden layers and of the output layer (last) for backpropagation
+	private int batchSize = 1; // number of samples in one mini-batch, 1 means online training (weights are updated after each sample)
+	private Batch batch; // buffers for mini-batch training
+	
+	// parallel training
+	private int threads = 1; // number of threads for training
+	private ParallelMode parallelMode = ParallelMode.SYNCHRONOUS;
+	private ExecutorService pool; // workers for parallel training
+	private Batch[] workerBatch; // buffers of the workers
+	private double parallelUtilization = 1; // CPU time of the workers / (threads * time) in the last iteration
+	private double parallelEfficiency = 1; // samples/s of parallel training / (threads * samples/s of one thread) in the last iteration
+	private static int CALIBRATION_SAMPLES = 128; // samples computed by one thread in every iteration to measure speed of one thread
+	private Batch calibrationBatch; // buffers for measuring speed of one thread
+	private long parallelSamples, parallelTime; // samples trained in parallel in the current iteration and time of the training
+	private long singleSamples, singleTime; // samples computed by one thread in the current iteration and time of the computation
+	
+	// telemetry
+	private TrainingListener listener; // null if nobody listens
+	private TrainingHandle handle; // handle of the running training, null if the training isn't controlled by a handle
+	private volatile TrainingListener.StopReason stopRequest; // why the handle asked the training to stop, null if it didn't
+	private static int STOP_CHECK_SAMPLES = 256; // number of samples of online training between checks of the handle
+	private long forwardTime; // time of forward passes in the current iteration (nanoseconds, summed over threads)
+	private long backwardTime; // time of backpropagation in the current iteration
+	private double squaredError; // sum of squared errors of outputs in the current iteration
 	
 	
 	public MLP(double[][] testData, double[][] trainData) {
@@ -58,68 +120,199 @@ public class MLP {
 		this.errorRate = errorRate;
 		this.stuckIterations = stuckIterations;
 		this.mutationNum = mutationNum;
+		this.hiddenActivation = new Activation.Sigmoid(gama);
+		this.outputActivation = new Activation.Sigmoid(gama);
+	}
+	
+	/**
+	 * Network trained and tested on data sets (e.g. mapped binary files), rows are widened to doubles only when they are used -
+	 * training samples are read in chunks by SampleSource.OfDataset, test rows one by one
+	 * @param testData
+	 * @param trainData
+	 * @param hiddenNum
+	 * @param neurons
+	 * @param gama
+	 * @param errorRate
+	 * @param stuckIterations
+	 * @param mutationNum
+	 */
+	public MLP(Dataset testData, Dataset trainData, int hiddenNum, int[] neurons, double gama, double errorRate, int stuckIterations, int mutationNum) {
+		this((double[][])null, null, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum);
+		this.testSet = testData;
+		this.trainSource = new SampleSource.OfDataset(trainData);
+	}
+	
+	/**
+	 * Set activation functions of neurons (sigmoid with gama is used by default)
+	 * @param hiddenActivation activation function of hidden layers
+	 * @param outputActivation activation function of the output layer
+	 */
+	public void setActivation(Activation hiddenActivation, Activation outputActivation) {
+		this.hiddenActivation = hiddenActivation;
+		this.outputActivation = outputActivation;
+	}
+	
+	/**
+	 * Set optimizer which updates weights by their gradient and schedule of the learning rate (SGD with constant rate 0.05 by default)
+	 * The optimizer keeps its state for the weights of this network, so it must not be shared by networks trained at the same time
+	 * In HOGWILD mode the workers update the state of the optimizer without synchronisation as they update the weights
+	 * @param optimizer
+	 * @param schedule
+	 */
+	public void setOptimizer(Optimizer optimizer, LearningRateSchedule schedule) {
+		this.optimizer = optimizer;
+		this.schedule = schedule;
+	}
+	
+	/**
+	 * Start the training from weights of the trained network instead of random weights (warm start), the network can have
+	 * different numbers of neurons and of hidden layers, weights of neurons and inputs which are in both networks are copied
+	 * @param initialModel null for random weights
+	 */
+	public void setInitialModel(TrainedMLP initialModel) {
+		this.initialModel = initialModel;
+	}
+	
+	/**
+	 * Set number of samples in one mini-batch, 1 means online training (default)
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * Train on more threads, training data are split between the threads, every thread processes mini-batches of batchSize samples
+	 * @param threads
+	 * @param parallelMode
+	 */
+	public void setThreads(int threads, ParallelMode parallelMode) {
+		this.threads = Math.max(1, threads);
+		this.parallelMode = parallelMode;
+	}
+	
+	/**
+	 * Train on samples read from the source instead of the training data, the samples are read in chunks by a background thread
+	 * and only the chunks are in memory (the source is read again for every iteration)
+	 * Mini-batches don't cross chunks, so chunkSize should be a multiple of batchSize*threads
+	 * @param source
+	 * @param chunkSize number of samples in one chunk
+	 * @param prefetchChunks number of chunks which can be read in advance
+	 */
+	public void setTrainSource(SampleSource source, int chunkSize, int prefetchChunks) {
+		this.trainSource = source;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.prefetchChunks = prefetchChunks;
+	}
+	
+	/**
+	 * Set listener of the training, it gets statistics of every iteration, mutations and reason why the training stopped
+	 * Phase times are measured only when a listener is set
+	 * @param listener
+	 */
+	public void setListener(TrainingListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Return scaling efficiency of the last iteration of parallel training - samples per second of the parallel training
+	 * divided by threads * samples per second of one thread (1 means linear scaling, less than 1/threads means
+	 * the parallel training is slower than one thread)
+	 * Speed of one thread is measured in every iteration - the training thread computes weight changes of the first
+	 * mini-batches like a worker and drops them (updates of weights aren't measured, they are a small part of a mini-batch)
+	 * @return
+	 */
+	public double getParallelEfficiency() {
+		return parallelEfficiency;
 	}
 	
 	/**
-	 * Initiation of the entry layer (set inputs for the entry layer and expected output)
+	 * Return utilization of the workers in the last iteration of parallel training
+	 * (sum of CPU time of the workers divided by number of threads and by time of the iteration, 1 means no worker waited)
+	 * A worker busy with overhead of the parallel training counts as utilized, see getParallelEfficiency for the scaling
+	 * @return
+	 */
+	public double getParallelUtilization() {
+		return parallelUtilization;
+	}
+	
+	/**
+	 * Initiation of the entry layer, inputs are copied to it from the sample being trained and the threshold is at the end
+	 * (expected output is made from the result of the sample when it is needed, so the training data aren't copied)
 	 */
 	private void initEntryL() {
-		entryL = new double[trainData.length][inputNumAll];
-		entryResult = new double[trainData.length][outNum];
-		
-		for (int dataId = 0; dataId < trainData.length; dataId++) {
-			for (int inputId = 0; inputId < inputNum; inputId++) {
-				entryL[dataId][inputId] = trainData[dataId][inputId];
-			}
-			entryL[dataId][inputNum] = treshold;
-			for (int outputId = 0; outputId < outNum; outputId++) { // set expected output
-				entryResult[dataId][outputId] = (trainData[dataId][resultPosition] == outputId)?1:0;
-			}
-		}
+		entryL = new double[inputNumAll];
+		entryL[inputNum] = treshold;
 	}
 	
 	/**
 	 * Set default weights for hidden layers and for output layer
+	 * Weights of the neuron are stored in one row of the block, the row has one weight for each neuron of the previous layer
+	 * (for the first hidden layer one weight for each input and one for the threshold)
 	 */
 	private void initWeights() {
-		// hidden layers weights
-		this.weight = new double[hiddenNum][inputNum][inputNum];
-		this.previousWeight = new double[hiddenNum][inputNum][inputNum];		
+		layerNeuronsNum = new int[hiddenNum+1];
+		weightStride = new int[hiddenNum+1];
+		weightOffset = new int[hiddenNum+2];
 		
-		// layer
-		for (int layerId = 0; layerId < hiddenNum; layerId++) {
-			weight[layerId] = new double[hiddenLayerNeuronsNum[layerId]][inputNum];
-			previousWeight[layerId] = new double[hiddenLayerNeuronsNum[layerId]][inputNum];
-			
-			for (int toId = 0; toId < weight[layerId].length; toId++) {
-				int fromNum = (layerId == 0)?inputNum:hiddenLayerNeuronsNum[layerId-1];
-				weight[layerId][toId] = new double[fromNum+1];
-				previousWeight[layerId][toId] = new double[fromNum+1];
-				
-				for (int fromId = 0; fromId < weight[layerId][toId].length; fromId++) {
-					weight[layerId][toId][fromId] = weightRand();
-				}
-			}
+		for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+			layerNeuronsNum[layerId] = (layerId == hiddenNum)?outNum:hiddenLayerNeuronsNum[layerId];
+			weightStride[layerId] = (layerId == 0)?inputNumAll:hiddenLayerNeuronsNum[layerId-1];
+			weightOffset[layerId+1] = weightOffset[layerId] + layerNeuronsNum[layerId]*weightStride[layerId];
 		}
 		
-		// Output layer weights
-		this.outWeight = new double[outNum][hiddenL[hiddenNum-1].length];
-		this.previousOutWeight = new double[outNum][hiddenL[hiddenNum-1].length];
+		this.weight = new double[weightOffset[hiddenNum+1]];
+		for (int weightId = 0; weightId < weight.length; weightId++) {
+			weight[weightId] = weightRand();
+		}
+		if (initialModel != null) {
+			inheritWeights(initialModel);
+		}
+	}
+	
+	/**
+	 * Copy weights of the model into the weights, hidden layers are matched by their order and the output layer only if both
+	 * networks have the same number of hidden layers, the following layers keep random weights
+	 * Weights of neurons which are in both layers are copied (trimmed to the smaller layer), new neurons keep random weights
+	 * and their weights in the next layer are zero, so they don't change outputs of the network at the start
+	 * @param model
+	 */
+	private void inheritWeights(TrainedMLP model) {
+		if (model.getInputNum() != inputNum) {
+			return;
+		}
+		double[] modelWeight = model.getWeight();
+		int[] modelNeuronsNum = model.getLayerNeuronsNum();
+		int[] modelStride = model.getWeightStride();
+		int modelHiddenNum = modelNeuronsNum.length-1;
 		
-		for (int fromId = 0; fromId < outWeight.length; fromId++) {			
-			for (int toId = 0; toId < outWeight[0].length; toId++) {
-				outWeight[fromId][toId] = weightRand();
+		int modelOffset = 0;
+		for (int layerId = 0; layerId <= Math.min(hiddenNum, modelHiddenNum); layerId++) {
+			boolean output = (layerId == hiddenNum);
+			if (output != (layerId == modelHiddenNum)) { // output layer is matched only to the output layer
+				break;
+			}
+			// computed neurons (the last neuron of a hidden layer is always zero)
+			int rows = Math.min(layerNeuronsNum[layerId], modelNeuronsNum[layerId]) - (output?0:1);
+			// inputs and threshold in the first layer, computed neurons of the previous layer in other layers
+			int columns = (layerId == 0)?inputNumAll:Math.min(weightStride[layerId], modelStride[layerId]) - 1;
+			int newColumns = (layerId == 0)?0:Math.max(0, weightStride[layerId] - 1 - columns); // inputs from new neurons
+			for (int neuronId = 0; neuronId < rows; neuronId++) {
+				int from = weightOffset[layerId] + neuronId*weightStride[layerId];
+				System.arraycopy(modelWeight, modelOffset + neuronId*modelStride[layerId], weight, from, columns);
+				Arrays.fill(weight, from + columns, from + columns + newColumns, 0);
 			}
+			modelOffset += modelNeuronsNum[layerId]*modelStride[layerId];
 		}
-		
 	}
 	
 	/**
 	 * Return random double for using as weight
+	 * (random generator of the thread is used, so more networks can be trained concurrently without sharing one generator)
 	 * @return
 	 */
 	private double weightRand() {
-		return (minWeight + Math.random()*(maxWeight-minWeight));
+		return (minWeight + ThreadLocalRandom.current().nextDouble()*(maxWeight-minWeight));
 	}
 	
 	/**
@@ -138,16 +331,40 @@ public class MLP {
 			hiddenL[layerId] = new double[hiddenLayerNeuronsNum[layerId]];
 		}
 	}
+	
+	/**
+	 * Initiation of the network for forward pass over the current weights
+	 */
+	private void initNetwork() {
+		layers = new double[hiddenNum+1][0];
+		System.arraycopy(hiddenL, 0, layers, 0, hiddenNum);
+		layers[hiddenNum] = outLayer;
+		network = new TrainedMLP(weight, layerNeuronsNum, weightStride, weightOffset, inputNum, treshold, hiddenActivation, outputActivation);
+	}
+	
+	/**
+	 * Initiation of deltas for hidden layers and for output layer
+	 */
+	private void initDelta() {
+		delta = new double[hiddenNum+1][0];
+		for (int layerId = 0; layerId < hiddenNum; layerId++) {
+			delta[layerId] = new double[hiddenLayerNeuronsNum[layerId]];
+		}
+		delta[hiddenNum] = new double[outNum];
+	}
 
 	/**
 	 * Test (classify) the given data, returns error rate of the testing
 	 * @return
 	 */
 	public double test() {
+		if (testSet != null) {
+			return testDataset();
+		}
 		int errors = 0;
 		for (int dataId = 0; dataId < testData.length; dataId++) {
 			int result = getResult(testData[dataId]);
-			if (getResult(testData[dataId]) != testData[dataId][resultPosition]) {
+			if (result != testData[dataId][resultPosition]) {
 				errors++;
 			}
 			// uncomment the next line to see detailed results of the testing
@@ -158,57 +375,56 @@ public class MLP {
 		return ((double)(testData.length-errors)/(testData.length));
 	}
 	
+	/**
+	 * Test (classify) the test data set, rows are widened to doubles one by one
+	 * @return
+	 */
+	private double testDataset() {
+		int errors = 0;
+		double[] row = new double[testSet.getFeaturesNum()+1];
+		for (int dataId = 0; dataId < testSet.getRowsNum(); dataId++) {
+			if (getResult(testSet.row(dataId, row)) != testSet.result(dataId)) {
+				errors++;
+			}
+		}
+		return ((double)(testSet.getRowsNum()-errors)/(testSet.getRowsNum()));
+	}
+	
 	/**
 	 * Classify the input data and return the digit which is the result of the classification
 	 * @param data
 	 * @return
 	 */
 	private int getResult(double[] data) {
-		result(data);
-		// check
-		double max = Double.MIN_VALUE;
-		int maxId = 0;
-		for (int outId = 0; outId < outNum; outId++) {
-			if (outLayer[outId] > max) {
-				max = outLayer[outId];
-				maxId = outId;
-			}
-		}
-		return maxId;
+		return network.classify(data, layers);
 	}
 	
 	/**
 	 * Classify the input data, result is in outLayer field
+	 * Layers are computed into the buffers allocated for the training, so nothing is allocated for the sample
 	 * @param features
-	 * @return
+	 * @return outLayer field (not a copy)
 	 */
 	private double[] result(double[] features) {
-		// classify in hidden layers
-		double[] input;// = Arrays.copyOf(entryL[dataId], entryL[dataId].length);
-		double[] output = Arrays.copyOf(features, features.length);
-		output[resultPosition] = 1;
-		
-		for (int layerId = 0; layerId < hiddenNum; layerId++) {
-			input = Arrays.copyOf(output, output.length);
-			output = new double[hiddenLayerNeuronsNum[layerId]];
-			
-			// set neurons in the layer
-			for (int neuronId = 0; neuronId < output.length-1; neuronId++) {
-				double sum = sumInput(input, weight[layerId][neuronId]);
-				output[neuronId] = sigmoid(sum);
-				
-				hiddenL[layerId][neuronId] = output[neuronId]; // set output to layer data
-			}
-			
-			
-		}
-		
-		// Classify in output layer				
-		for (int neuronId = 0; neuronId < outNum; neuronId++) {
-			double sum = sumInput(hiddenL[hiddenNum-1], outWeight[neuronId]);
-			outLayer[neuronId] = sigmoid(sum);
-		}
-		return Arrays.copyOf(outLayer, outLayer.length);
+		return network.forward(features, layers);
+	}
+	
+	/**
+	 * Return trained network for classification, the network is a copy, so it doesn't change by further training
+	 * and it can be used by more threads
+	 * @return
+	 */
+	public TrainedMLP getModel() {
+		return getModel(weight.clone());
+	}
+	
+	/**
+	 * Return network for classification with the given weights (same layout as the weights of this network, not copied)
+	 * @param weight
+	 * @return
+	 */
+	TrainedMLP getModel(double[] weight) {
+		return new TrainedMLP(weight, layerNeuronsNum.clone(), weightStride.clone(), weightOffset.clone(), inputNum, treshold, hiddenActivation, outputActivation);
 	}
 
 	/**
@@ -216,23 +432,232 @@ public class MLP {
 	 * @return
 	 */
 	public double train() {
+		initTraining();
+		try {
+			return trainIterations(maxIterations);
+		} finally {
+			finishTraining();
+		}
+	}
+	
+	/**
+	 * Train the neural network, the training can be cancelled and stopped at the deadline through the handle
+	 * and the handle keeps the best weights seen during the training
+	 * @param handle
+	 * @return part of correctly classified training samples in the last finished iteration
+	 */
+	public double train(TrainingHandle handle) {
+		this.handle = handle;
+		this.stopRequest = null;
+		this.stopReason = null;
+		if (!handle.started(this)) {
+			this.handle = null;
+			throw new CancellationException("The training was cancelled before it started");
+		}
+		try {
+			return train();
+		} finally {
+			this.handle = null;
+			handle.stopped(stopReason);
+		}
+	}
+	
+	/**
+	 * Start the training by the executor and return its handle
+	 * @param executor
+	 * @param timeout time for the training in milliseconds from its start (waiting in the queue of the executor isn't counted),
+	 * 0 or less means no deadline
+	 * @return
+	 */
+	public TrainingHandle trainAsync(ExecutorService executor, long timeout) {
+		TrainingHandle handle = new TrainingHandle(timeout);
+		executor.execute(handle.task(() -> train(handle))); // the handle has the task before the training can use it
+		return handle;
+	}
+	
+	/**
+	 * Continue the training for at most the given number of iterations, the first call initialises the network
+	 * Weights, state of the optimizer and counters of the training are kept between the calls, so calls whose iterations
+	 * add up to maxIterations train the same as one call of train(), max training time is for all the calls together
+	 * @param iterations
+	 * @return part of correctly classified training samples in the last iteration
+	 */
+	public double train(int iterations) {
+		if (weight == null) {
+			initTraining();
+		} else {
+			startWorkers();
+		}
+		try {
+			return trainIterations(iterations);
+		} finally {
+			finishTraining();
+		}
+	}
+	
+	/**
+	 * Return true if the training stopped because the required result, max iterations or max training time was reached
+	 * (further calls of train(iterations) do nothing)
+	 * @return
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Return number of iterations since the network was initialised
+	 * @return
+	 */
+	public int getIterations() {
+		return trainedIterations;
+	}
+	
+	/**
+	 * Initiation of the network and of the buffers for training
+	 */
+	void initTraining() {
 		initHiddenL();
 		initEntryL();
 		initWeights();
+		optimizer.init(weight.length);
 		initOutL();
+		initDelta();
+		initNetwork();
+		if (batchSize > 1) {
+			batch = new Batch(batchSize);
+		}
+		if (threads > 1) {
+			workerBatch = new Batch[threads];
+			for (int workerId = 0; workerId < threads; workerId++) {
+				workerBatch[workerId] = new Batch(batchSize);
+			}
+			calibrationBatch = new Batch(batchSize);
+		}
+		trainedIterations = 0;
+		trainedTime = 0;
+		stuck = 0;
+		previousErrorRate = 0;
+		finished = false;
+		startWorkers();
+	}
+	
+	/**
+	 * Start the threads used for training
+	 */
+	private void startWorkers() {
+		if (threads > 1) {
+			pool = Executors.newFixedThreadPool(threads);
+		}
+		if (trainSource != null) {
+			prefetcher = new SamplePrefetcher(trainSource, chunkSize, prefetchChunks, inputNum+1);
+		}
+	}
+	
+	/**
+	 * Stop the threads used for training
+	 */
+	void finishTraining() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		if (prefetcher != null) {
+			prefetcher.close();
+			prefetcher = null;
+		}
+	}
+	
+	/**
+	 * Train the network on all training data one time (initTraining must be called first), used by benchmarks
+	 * @return number of wrongly classified samples
+	 */
+	int trainEpoch() {
+		return trainAllInputs();
+	}
+	
+	/**
+	 * Classify one sample and update weights by backpropagation (initTraining must be called first), used by benchmarks
+	 * @param row features and the expected result at the end
+	 */
+	void trainSample(double[] row) {
+		result(row);
+		backpropagation(row, (int)row[resultPosition]);
+	}
+
+	/**
+	 * Classify one sample by the training buffers (initTraining must be called first), used by benchmarks
+	 * @param row features (and the expected result at the end)
+	 * @return output layer (not a copy)
+	 */
+	double[] forwardSample(double[] row) {
+		return result(row);
+	}
+
+	/**
+	 * Classify the rows by the mini-batch buffers (initTraining must be called first, batch size must be more than 1), used by benchmarks
+	 * @param rows samples (features and the expected result at the end)
+	 * @param from index of the first sample
+	 * @param count number of samples, at most the batch size
+	 * @return output layer of all samples (not a copy)
+	 */
+	double[] forwardBatch(double[][] rows, int from, int count) {
+		batch.forward(rows, from, count);
+		return batch.layer[hiddenNum];
+	}
+
+	/**
+	 * Update weights by backpropagation only, the layers computed by the last forwardSample are used, used by benchmarks
+	 * @param row features and the expected result at the end
+	 */
+	void backwardSample(double[] row) {
+		backpropagation(row, (int)row[resultPosition]);
+	}
+	
+	/**
+	 * Repeat training on all inputs until the required result, max iterations or max training time is reached
+	 * or until the given number of iterations is done
+	 * @param budget max number of iterations of this call
+	 * @return
+	 */
+	private double trainIterations(int budget) {
+		long startTime = System.currentTimeMillis() - trainedTime; // time of the previous calls is counted too
+		double currentErrorRate = previousErrorRate;
+		if (finished || budget <= 0) {
+			return currentErrorRate;
+		}
 		
-		long startTime = System.currentTimeMillis();
-		double currentErrorRate = 0;
-		double previousErrorRate = 0;
-		
-		int iterations = 0;
-		int stuck = 0;
+		int iterations = trainedIterations;
+		int lastIteration = (int)Math.min((long)iterations + budget, maxIterations);
 		do {
 			iterations++;			
+			trainedIterations = iterations;
+			learningRate = schedule.learningRate(iterations);
 			// try all training data
+			long iterationStart = System.nanoTime();
+			forwardTime = 0;
+			backwardTime = 0;
+			squaredError = 0;
+			parallelSamples = 0;
+			parallelTime = 0;
+			singleSamples = 0;
+			singleTime = 0;
 			int errors = trainAllInputs();			
+			if (stopRequested()) { // the iteration wasn't finished, the result of the previous one is returned
+				trainedTime = System.currentTimeMillis() - startTime;
+				finished = true;
+				stopped(stopRequest, iterations, startTime, previousErrorRate);
+				return previousErrorRate;
+			}
 			
-			currentErrorRate = (trainData.length-((double)errors)) / ((double)(trainData.length));			
+			currentErrorRate = (passSamples == 0)?0:(passSamples-((double)errors)) / ((double)passSamples);			
+			if (listener != null) {
+				double meanSquaredError = (passSamples == 0)?0:squaredError / (passSamples*outNum);
+				listener.epochFinished(new TrainingListener.Epoch(iterations, passSamples, System.nanoTime() - iterationStart,
+						forwardTime, backwardTime, currentErrorRate, meanSquaredError));
+			}
+			if (handle != null) {
+				handle.iterationFinished(iterations, currentErrorRate, weight);
+			}
 
 			if (currentErrorRate > previousErrorRate) {
 				stuck = 0;
@@ -243,42 +668,146 @@ public class MLP {
 					currentErrorRate = 0;
 					// mutation
 					mutation();
+					if (listener != null) {
+						listener.mutation(iterations);
+					}
 				}
 			}
 			previousErrorRate = currentErrorRate;
 			
 			if (System.currentTimeMillis() - startTime > maxTrainingTime) { // if time is over
+				trainedTime = System.currentTimeMillis() - startTime;
+				finished = true;
+				stopped(TrainingListener.StopReason.MAX_TRAINING_TIME, iterations, startTime, currentErrorRate);
 				return currentErrorRate;
 			}
-		} while (errorRate > currentErrorRate && iterations < maxIterations);
+		} while (errorRate > currentErrorRate && iterations < lastIteration);
 		
+		trainedTime = System.currentTimeMillis() - startTime;
+		finished = (errorRate <= currentErrorRate || iterations >= maxIterations);
+		if (finished) {
+			stopped((errorRate > currentErrorRate)?TrainingListener.StopReason.MAX_ITERATIONS:TrainingListener.StopReason.TARGET,
+					iterations, startTime, currentErrorRate);
+		}
 		return currentErrorRate;
 	}
 	
+	/**
+	 * Return true if the handle asked the training to stop (the reason is saved in stopRequest), it can be called by workers
+	 * @return
+	 */
+	private boolean stopRequested() {
+		if (handle == null) {
+			return false;
+		}
+		if (stopRequest == null) {
+			stopRequest = handle.checkStop();
+		}
+		return stopRequest != null;
+	}
+	
+	/**
+	 * Tell the listener that the training stopped
+	 * @param reason
+	 * @param iterations
+	 * @param startTime
+	 * @param accuracy
+	 */
+	private void stopped(TrainingListener.StopReason reason, int iterations, long startTime, double accuracy) {
+		stopReason = reason;
+		if (listener != null) {
+			listener.trainingStopped(reason, iterations, System.currentTimeMillis() - startTime, accuracy);
+		}
+	}
+	
 /**
  * Train the network on the set of inputs one time
  * @return
  */
 	private int trainAllInputs() {
+		if (trainSource != null) {
+			return trainAllInputsStream();
+		}
+		passSamples = trainData.length;
+		return trainRows(trainData, trainData.length);
+	}
+	
+	/**
+	 * Train the network on all samples of the source one time, chunks of samples are trained as they are read
+	 * @return
+	 */
+	private int trainAllInputsStream() {
 		int errors = 0;
-		for (int dataId = 0; dataId < trainData.length; dataId++) {
+		long samples = 0;
+		prefetcher.startPass();
+		try {
+			SamplePrefetcher.Chunk chunk;
+			while ((chunk = prefetcher.next()) != null) {
+				errors += trainRows(chunk.rows, chunk.count);
+				samples += chunk.count;
+				prefetcher.release(chunk);
+				if (stopRequested()) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Reading of training samples failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!stopRequested()) { // interruption of training with a handle is cancellation
+				throw new IllegalStateException("Training was interrupted", e);
+			}
+		}
+		passSamples = samples;
+		return errors;
+	}
+	
+	/**
+	 * Train the network on the rows one time
+	 * @param rows samples (features and the result at the end)
+	 * @param count number of rows to train
+	 * @return number of wrongly classified rows
+	 */
+	private int trainRows(double[][] rows, int count) {
+		if (threads > 1) {
+			return trainAllInputsParallel(rows, count);
+		}
+		if (batchSize > 1) {
+			return trainAllInputsBatch(rows, count);
+		}
+		
+		boolean timed = (listener != null);
+		int errors = 0;
+		for (int dataId = 0; dataId < count; dataId++) {
+			if (dataId % STOP_CHECK_SAMPLES == 0 && stopRequested()) {
+				break;
+			}
 
 			// find result
-			result(trainData[dataId]);				
+			long start = timed ? System.nanoTime() : 0;
+			result(rows[dataId]);				
+			long middle = timed ? System.nanoTime() : 0;
 			
 			/// Backpropagation
-			backpropagation(dataId);			
+			int expected = (int)rows[dataId][resultPosition];
+			backpropagation(rows[dataId], expected);			
+			if (timed) {
+				forwardTime += middle - start;
+				backwardTime += System.nanoTime() - middle;
+			}
 			
 			// check result
-			double max = Double.MIN_VALUE;
+			double max = Double.NEGATIVE_INFINITY;
 			int maxId = 0;
 			for (int outId = 0; outId < outNum; outId++) {
 				if (outLayer[outId] > max) {
 					max = outLayer[outId];
 					maxId = outId;
 				}
+				double difference = ((outId == expected)?1:0) - outLayer[outId];
+				squaredError += difference * difference;
 			}
-			if (entryResult[dataId][maxId] != 1) {
+			if (maxId != expected) {
 				errors += 1;
 			}
 			
@@ -287,137 +816,453 @@ public class MLP {
 	}
 	
 	/**
-	 * Update weights using backpropagation
-	 * @param dataId
-	 */
-	private void backpropagation(int dataId) {
-		 // output layer
-		// compute delta
-		double[] delta = outputDelta(dataId);
-		for (int neuronId = 0; neuronId < outNum; neuronId++) {					
-			for (int previousId = 0; previousId < outWeight[neuronId].length; previousId++) {
-				double weightChange = outputWeightChange(neuronId, previousId, delta);
-				outWeight[neuronId][previousId] = outWeight[neuronId][previousId] + weightChange+previousOutWeight[neuronId][previousId];
+	 * Train the network on the set of inputs one time, weights are updated once per mini-batch
+	 * @param rows
+	 * @param length number of rows to train
+	 * @return
+	 */
+	private int trainAllInputsBatch(double[][] rows, int length) {
+		boolean timed = (listener != null);
+		int errors = 0;
+		for (int from = 0; from < length; from += batchSize) {
+			if (stopRequested()) {
+				break;
 			}
+			int count = Math.min(batchSize, length - from);
+			long start = timed ? System.nanoTime() : 0;
+			batch.forward(rows, from, count);
+			errors += batch.errors(count);
+			long middle = timed ? System.nanoTime() : 0;
+			batch.backward(count);
+			applyGradient(batch.gradient);
+			if (timed) {
+				forwardTime += middle - start;
+				backwardTime += System.nanoTime() - middle;
+			}
+		}
+		squaredError += batch.takeSquaredError();
+		return errors;
+	}
+	
+	/**
+	 * Train the network on the set of inputs one time using more threads, every thread has its own part of the inputs
+	 * @param rows
+	 * @param length number of rows to train
+	 * @return
+	 */
+	private int trainAllInputsParallel(double[][] rows, int length) {
+		if (singleSamples < CALIBRATION_SAMPLES) {
+			measureSingleThread(rows, length);
 		}
+		long startTime = System.nanoTime();
+		boolean timed = (listener != null);
+		long[] busy = new long[threads];
+		long[] forward = new long[threads];
+		long[] backward = new long[threads];
+		int[] errors = new int[threads];
+		List<Callable<Void>> tasks = new ArrayList<>();
 		
-		for (int layerId = hiddenNum-1; layerId >= 0; layerId--) { // update weights - last layer first
-			delta = hiddenDelta(delta, layerId);
-			for (int neuronId = 0; neuronId < hiddenL[layerId].length; neuronId++) {
+		if (parallelMode == ParallelMode.HOGWILD) {
+			// every worker trains on its part of inputs and updates the shared weights without waiting for others
+			for (int workerId = 0; workerId < threads; workerId++) {
+				final int worker = workerId;
+				final int from = (int)((long)length*workerId/threads);
+				final int to = (int)((long)length*(workerId+1)/threads);
+				tasks.add(() -> {
+					long start = cpuTime();
+					Batch workBatch = workerBatch[worker];
+					for (int batchFrom = from; batchFrom < to; batchFrom += batchSize) {
+						if (stopRequested()) {
+							break;
+						}
+						int count = Math.min(batchSize, to - batchFrom);
+						long forwardStart = timed ? System.nanoTime() : 0;
+						workBatch.forward(rows, batchFrom, count);
+						errors[worker] += workBatch.errors(count);
+						long backwardStart = timed ? System.nanoTime() : 0;
+						workBatch.backward(count);
+						applyGradient(workBatch.gradient);
+						if (timed) {
+							forward[worker] += backwardStart - forwardStart;
+							backward[worker] += System.nanoTime() - backwardStart;
+						}
+					}
+					busy[worker] += cpuTime() - start;
+					return null;
+				});
+			}
+			runParallel(tasks);
+		} else {
+			// every worker computes weight changes for its part of the mini-batch, then the changes are summed
+			int step = batchSize*threads;
+			for (int from = 0; from < length; from += step) {
+				if (stopRequested()) {
+					break;
+				}
+				int stepCount = Math.min(step, length - from);
+				tasks.clear();
+				for (int workerId = 0; workerId < threads; workerId++) {
+					final int worker = workerId;
+					final int workerFrom = from + stepCount*workerId/threads;
+					final int count = from + stepCount*(workerId+1)/threads - workerFrom;
+					tasks.add(() -> {
+						long start = cpuTime();
+						if (count > 0) {
+							long forwardStart = timed ? System.nanoTime() : 0;
+							workerBatch[worker].forward(rows, workerFrom, count);
+							errors[worker] += workerBatch[worker].errors(count);
+							long backwardStart = timed ? System.nanoTime() : 0;
+							workerBatch[worker].backward(count);
+							if (timed) {
+								forward[worker] += backwardStart - forwardStart;
+								backward[worker] += System.nanoTime() - backwardStart;
+							}
+						}
+						busy[worker] += cpuTime() - start;
+						return null;
+					});
+				}
+				runParallel(tasks);
+				if (stopRequested()) { // the step wasn't finished, weights aren't updated
+					break;
+				}
 				
-				double[] previousLayer = (layerId == 0)?(entryL[dataId]):hiddenL[layerId-1];
-				for (int previousId = 0; previousId < previousLayer.length; previousId++) {
-					double weightChange = hiddenWeightChange(neuronId, previousId, dataId, layerId, delta);
-					weight[layerId][neuronId][previousId] = weight[layerId][neuronId][previousId] + weightChange + previousWeight[layerId][neuronId][previousId];
+				// sum weight changes into the first worker's gradient, every worker sums and updates its part of the weights
+				optimizer.nextStep();
+				double[] gradient = workerBatch[0].gradient;
+				tasks.clear();
+				for (int workerId = 0; workerId < threads; workerId++) {
+					final int worker = workerId;
+					final int weightFrom = (int)((long)weight.length*workerId/threads);
+					final int weightTo = (int)((long)weight.length*(workerId+1)/threads);
+					tasks.add(() -> {
+						long start = cpuTime();
+						for (int otherId = 1; otherId < threads; otherId++) {
+							double[] workGradient = workerBatch[otherId].gradient;
+							for (int weightId = weightFrom; weightId < weightTo; weightId++) {
+								gradient[weightId] += workGradient[weightId];
+								workGradient[weightId] = 0;
+							}
+						}
+						optimizer.update(weight, gradient, weightFrom, weightTo, learningRate);
+						Arrays.fill(gradient, weightFrom, weightTo, 0);
+						busy[worker] += cpuTime() - start;
+						return null;
+					});
 				}
+				runParallel(tasks);
 			}
 		}
+		
+		long time = System.nanoTime() - startTime;
+		long busyAll = 0;
+		int errorsAll = 0;
+		for (int workerId = 0; workerId < threads; workerId++) {
+			busyAll += busy[workerId];
+			errorsAll += errors[workerId];
+			forwardTime += forward[workerId];
+			backwardTime += backward[workerId];
+			squaredError += workerBatch[workerId].takeSquaredError();
+		}
+		parallelUtilization = (double)busyAll / ((double)threads * time);
+		parallelSamples += length;
+		parallelTime += time;
+		if (singleTime > 0 && parallelTime > 0) {
+			parallelEfficiency = ((double)parallelSamples / parallelTime) / (threads * (double)singleSamples / singleTime);
+		}
+		return errorsAll;
 	}
 	
 	/**
-	 * Mutate neurons
+	 * Measure speed of one thread - weight changes of the first samples are computed by the training thread
+	 * like by a worker, the changes are dropped, so the training isn't affected
+	 * @param rows
+	 * @param length number of rows to train
 	 */
-	private void mutation() {
-		for (int i = 0; i < mutationNum; i++) {
-			// mutate neurons in output layer
-			int x = (int)(Math.random() * outWeight.length);
-			int y = (int)(Math.random() * outWeight[x].length);
-			outWeight[x][y] = weightRand();
-			
-			/**
-			 * Mutate neurons in hidden layers
-			 */
-			int l = (int)(Math.random() * hiddenNum);
-			 x = (int)(Math.random() * weight[l].length);
-			 y = (int)(Math.random() * weight[l][x].length);
-			 weight[l][x][y] = weightRand();
+	private void measureSingleThread(double[][] rows, int length) {
+		int count = (int)Math.min(length, CALIBRATION_SAMPLES - singleSamples);
+		long start = System.nanoTime();
+		for (int from = 0; from < count; from += batchSize) {
+			int batchCount = Math.min(batchSize, count - from);
+			calibrationBatch.forward(rows, from, batchCount);
+			calibrationBatch.errors(batchCount);
+			calibrationBatch.backward(batchCount);
 		}
+		singleTime += System.nanoTime() - start;
+		singleSamples += count;
+		calibrationBatch.takeSquaredError();
+		Arrays.fill(calibrationBatch.gradient, 0);
 	}
 	
 	/**
-	 * calculate delta for output layer (backpropagation)
-	 * @param dataId
+	 * Return CPU time of the current thread in nanoseconds
 	 * @return
 	 */
-	private double[] outputDelta(int dataId) {
-		double[] delta = new double[outNum];
-		for (int neuronId = 0; neuronId < outNum; neuronId++) {
-			delta[neuronId] = gama * outLayer[neuronId] * (1 - outLayer[neuronId]) * (entryResult[dataId][neuronId] - outLayer[neuronId]);
+	private long cpuTime() {
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+	
+	/**
+	 * Run the tasks by the workers and wait until all are done
+	 * Interruption of training with a handle is cancellation - the workers stop at their next check and they are waited for
+	 * @param tasks
+	 */
+	private void runParallel(List<Callable<Void>> tasks) {
+		List<Future<Void>> futures = new ArrayList<>();
+		for (Callable<Void> task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		boolean interrupted = false;
+		try {
+			for (Future<Void> future : futures) {
+				while (true) {
+					try {
+						future.get();
+						break;
+					} catch (InterruptedException e) {
+						if (handle == null) {
+							for (Future<Void> task : futures) {
+								task.cancel(true);
+							}
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException("Training was interrupted", e);
+						}
+						interrupted = true;
+						stopRequest = TrainingListener.StopReason.CANCELLED;
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Training failed", e.getCause());
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
 		}
-		
-		return delta;		
 	}
 	
 	/**
-	 * calculate change for output layer (backpropagation)
-	 * @param neuronId
-	 * @param previousId
-	 * @param delta
-	 * @return
+	 * Update weights by the weight changes accumulated for the mini-batch and clear the accumulated changes
+	 * @param gradient
 	 */
-	private double outputWeightChange(int neuronId, int previousId, double[] delta) {
-		return  learningRate * delta[neuronId] * hiddenL[hiddenNum-1][previousId];     
+	private void applyGradient(double[] gradient) {
+		optimizer.nextStep();
+		optimizer.update(weight, gradient, 0, weight.length, learningRate);
+		Arrays.fill(gradient, 0);
 	}
 	
 	/**
-	 * calculate delta for hidden layers (backpropagation)
-	 * @param nextDelta
-	 * @param layerId
-	 * @return
+	 * Update weights using backpropagation
+	 * @param features inputs of the sample
+	 * @param expected expected result of the sample
 	 */
-	private double[] hiddenDelta(double[] nextDelta, int layerId) {
-		double[] delta = new double[hiddenL[layerId].length];
+	private void backpropagation(double[] features, int expected) {
+		System.arraycopy(features, 0, entryL, 0, inputNum);
+		optimizer.nextStep();
 		
-		for (int neuronId = 0; neuronId < hiddenL[layerId].length; neuronId++) {
-			// compute suma
-			double suma = 0;
-			double[][] nextWeights = (layerId+1 == hiddenNum)?outWeight:weight[layerId+1];
-			double[] nextLayer = (layerId+1 == hiddenNum)?outLayer:hiddenL[layerId+1];
-			for (int nextNeuronId = 0; nextNeuronId < nextLayer.length; nextNeuronId++) {
-				suma += nextWeights[nextNeuronId][neuronId] * nextDelta[nextNeuronId];
-			}
-			delta[neuronId] = gama * hiddenL[layerId][neuronId] * (1 - hiddenL[layerId][neuronId]) * suma;
-		}
+		// output layer
+		outputDelta(expected);
+		updateLayerWeights(hiddenNum, delta[hiddenNum], hiddenL[hiddenNum-1]);
 		
-		return delta;
+		for (int layerId = hiddenNum-1; layerId >= 0; layerId--) { // update weights - last layer first
+			hiddenDelta(delta[layerId+1], layerId);
+			double[] previousLayer = (layerId == 0)?entryL:hiddenL[layerId-1];
+			updateLayerWeights(layerId, delta[layerId], previousLayer);
+		}
 	}
 	
 	/**
-	 * Calculate change for hidden layers (backpropagation)
-	 * @param neuronId
-	 * @param previousId
-	 * @param dataId
+	 * Update weights of one layer (backpropagation)
 	 * @param layerId
 	 * @param delta
-	 * @return
+	 * @param previousLayer
 	 */
-	private double hiddenWeightChange(int neuronId, int previousId, int dataId, int layerId, double[] delta) {	
-		
-		double[] previousLayer = (layerId == 0)?(entryL[dataId]):hiddenL[layerId-1];		
-		return learningRate * delta[neuronId] * previousLayer[previousId];     
+	private void updateLayerWeights(int layerId, double[] delta, double[] previousLayer) {
+		int stride = weightStride[layerId];
+		for (int neuronId = 0; neuronId < layerNeuronsNum[layerId]; neuronId++) {
+			optimizer.updateRow(weight, weightOffset[layerId] + neuronId*stride, delta[neuronId], previousLayer, stride, learningRate);
+		}
 	}
 	
 	/**
-	 * calculate sigmoid function
-	 * @param x
-	 * @return
+	 * Mutate neurons
 	 */
-	private double sigmoid(double x) {
-		return (1d / (1d + Math.pow(Math.E, -gama*x)));
+	private void mutation() {
+		for (int i = 0; i < mutationNum; i++) {
+			// mutate neurons in output layer
+			int outWeightsNum = weightOffset[hiddenNum+1] - weightOffset[hiddenNum];
+			weight[weightOffset[hiddenNum] + (int)(ThreadLocalRandom.current().nextDouble() * outWeightsNum)] = weightRand();
+			
+			/**
+			 * Mutate neurons in hidden layers
+			 */
+			int l = (int)(ThreadLocalRandom.current().nextDouble() * hiddenNum);
+			int layerWeightsNum = weightOffset[l+1] - weightOffset[l];
+			weight[weightOffset[l] + (int)(ThreadLocalRandom.current().nextDouble() * layerWeightsNum)] = weightRand();
+		}
 	}
 	
 	/**
-	 * Sum inputs multiplied by weights for perceptron
-	 * @param input
-	 * @param weights
-	 * @return
+	 * calculate delta for output layer (backpropagation), result is in delta field
+	 * @param expected expected result, the expected output is 1 for its neuron and 0 for others
 	 */
-	private double sumInput(double[] input, double[] weights) {
-		double sum = 0;
-		for (int inputId = 0; inputId < input.length; inputId++) {
-			sum += input[inputId] * weights[inputId];
+	private void outputDelta(int expected) {
+		double[] delta = this.delta[hiddenNum];
+		for (int neuronId = 0; neuronId < outNum; neuronId++) {
+			double target = (neuronId == expected)?1:0;
+			delta[neuronId] = outputActivation.derivative(outLayer[neuronId]) * (target - outLayer[neuronId]);
+		}
+	}
+	
+	/**
+	 * calculate delta for hidden layers (backpropagation), result is in delta field
+	 * @param nextDelta
+	 * @param layerId
+	 */
+	private void hiddenDelta(double[] nextDelta, int layerId) {
+		double[] delta = this.delta[layerId];
+		int nextStride = weightStride[layerId+1]; // next layer has one weight for each neuron of this layer
+		int nextOffset = weightOffset[layerId+1];
+		
+		// compute suma for all neurons at once, rows of the next layer are read one by one
+		Arrays.fill(delta, 0);
+		for (int nextNeuronId = 0; nextNeuronId < layerNeuronsNum[layerId+1]; nextNeuronId++) {
+			Vectors.addScaled(delta, nextDelta[nextNeuronId], weight, nextOffset + nextNeuronId*nextStride, nextStride);
+		}
+		for (int neuronId = 0; neuronId < delta.length-1; neuronId++) {
+			delta[neuronId] = hiddenActivation.derivative(hiddenL[layerId][neuronId]) * delta[neuronId];
+		}
+		delta[delta.length-1] = 0; // the last neuron isn't computed, it doesn't change the error
+	}
+	
+	/**
+	 * Buffers for one mini-batch, every layer is a matrix with one row for each sample of the batch
+	 */
+	private class Batch {
+		double[] input; // entry layer with threshold
+		int[] expected; // expected results of the samples
+		double[][] layer; // hidden layers and output layer (last)
+		double[][] delta; // deltas of hidden layers and output layer (last)
+		double[] gradient; // sum of weight changes for the samples of the batch, same layout as weight
+		double squaredError; // sum of squared errors of outputs since the last takeSquaredError
+		
+		Batch(int size) {
+			input = new double[size*inputNumAll];
+			expected = new int[size];
+			layer = new double[hiddenNum+1][0];
+			delta = new double[hiddenNum+1][0];
+			for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+				layer[layerId] = new double[size*layerNeuronsNum[layerId]];
+				delta[layerId] = new double[size*layerNeuronsNum[layerId]];
+			}
+			gradient = new double[weight.length];
+		}
+		
+		/**
+		 * Classify the samples of the batch, layers are computed as matrix products
+		 * @param rows samples (features and the result at the end)
+		 * @param from id of the first sample
+		 * @param count number of samples
+		 */
+		void forward(double[][] rows, int from, int count) {
+			for (int sampleId = 0; sampleId < count; sampleId++) {
+				double[] row = rows[from+sampleId];
+				System.arraycopy(row, 0, input, sampleId*inputNumAll, inputNum);
+				input[sampleId*inputNumAll + inputNum] = treshold;
+				expected[sampleId] = (int)row[resultPosition];
+			}
+			
+			for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+				double[] previousLayer = (layerId == 0)?input:layer[layerId-1];
+				double[] currentLayer = layer[layerId];
+				int neurons = layerNeuronsNum[layerId];
+				Matrix.multiplyTransposed(previousLayer, weight, weightOffset[layerId], currentLayer, count, neurons, weightStride[layerId]);
+				
+				Activation activation = (layerId == hiddenNum)?outputActivation:hiddenActivation;
+				for (int id = 0; id < count*neurons; id++) {
+					currentLayer[id] = activation.value(currentLayer[id]);
+				}
+				if (layerId < hiddenNum) { // the last neuron of a hidden layer is not computed (as in online training)
+					for (int sampleId = 0; sampleId < count; sampleId++) {
+						currentLayer[sampleId*neurons + neurons-1] = 0;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Count wrongly classified samples of the batch, squared errors of outputs are added to squaredError
+		 * @param count number of samples
+		 * @return
+		 */
+		int errors(int count) {
+			double[] outputLayer = layer[hiddenNum];
+			int errors = 0;
+			for (int sampleId = 0; sampleId < count; sampleId++) {
+				double max = Double.NEGATIVE_INFINITY;
+				int maxId = 0;
+				for (int outId = 0; outId < outNum; outId++) {
+					if (outputLayer[sampleId*outNum + outId] > max) {
+						max = outputLayer[sampleId*outNum + outId];
+						maxId = outId;
+					}
+				}
+				for (int outId = 0; outId < outNum; outId++) {
+					double difference = ((outId == expected[sampleId])?1:0) - outputLayer[sampleId*outNum + outId];
+					squaredError += difference * difference;
+				}
+				if (maxId != expected[sampleId]) {
+					errors++;
+				}
+			}
+			return errors;
+		}
+		
+		/**
+		 * Return sum of squared errors of outputs counted by errors() and start a new sum
+		 * @return
+		 */
+		double takeSquaredError() {
+			double sum = squaredError;
+			squaredError = 0;
+			return sum;
+		}
+		
+		/**
+		 * Compute deltas of all layers and add weight changes of the samples to gradient
+		 * @param count number of samples
+		 */
+		void backward(int count) {
+			// output layer
+			double[] outputLayer = layer[hiddenNum];
+			double[] outputDelta = delta[hiddenNum];
+			for (int sampleId = 0; sampleId < count; sampleId++) {
+				for (int neuronId = 0; neuronId < outNum; neuronId++) {
+					double out = outputLayer[sampleId*outNum + neuronId];
+					double target = (neuronId == expected[sampleId])?1:0;
+					outputDelta[sampleId*outNum + neuronId] = outputActivation.derivative(out) * (target - out);
+				}
+			}
+			
+			// hidden layers - last layer first
+			for (int layerId = hiddenNum-1; layerId >= 0; layerId--) {
+				int neurons = layerNeuronsNum[layerId];
+				Matrix.multiply(delta[layerId+1], weight, weightOffset[layerId+1], delta[layerId], count, neurons, layerNeuronsNum[layerId+1]);
+				for (int id = 0; id < count*neurons; id++) {
+					double out = layer[layerId][id];
+					delta[layerId][id] = hiddenActivation.derivative(out) * delta[layerId][id];
+				}
+				for (int sampleId = 0; sampleId < count; sampleId++) { // the last neuron isn't computed, it doesn't change the error
+					delta[layerId][sampleId*neurons + neurons-1] = 0;
+				}
+			}
+			
+			// weight changes
+			for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+				double[] previousLayer = (layerId == 0)?input:layer[layerId-1];
+				Matrix.addTransposedMultiply(delta[layerId], previousLayer, gradient, weightOffset[layerId], layerNeuronsNum[layerId], weightStride[layerId], count);
+			}
 		}
-		return sum;
 	}
 	
 }
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Cache-blocked matrix multiplication kernels for mini-batch training
+ * Matrices are row-major blocks of doubles, a matrix can start at any position of its block (offset)
+ * @author Tonda Kozk
+ *
+ */
+public class Matrix {
+	private static int BLOCK = 64; // size of the tile (rows and columns) which is processed at once
+
+	/**
+	 * Multiply matrix by transposed matrix: c = a * b^T
+	 * @param a matrix m x k
+	 * @param b matrix n x k
+	 * @param bOffset position of the first item of b in the block
+	 * @param c result matrix m x n
+	 * @param m
+	 * @param n
+	 * @param k
+	 */
+	public static void multiplyTransposed(double[] a, double[] b, int bOffset, double[] c, int m, int n, int k) {
+		Arrays.fill(c, 0, m*n, 0);
+		for (int rowBlock = 0; rowBlock < m; rowBlock += BLOCK) {
+			int rowEnd = Math.min(rowBlock + BLOCK, m);
+			for (int colBlock = 0; colBlock < n; colBlock += BLOCK) {
+				int colEnd = Math.min(colBlock + BLOCK, n);
+				for (int innerBlock = 0; innerBlock < k; innerBlock += BLOCK) {
+					int innerEnd = Math.min(innerBlock + BLOCK, k);
+
+					for (int row = rowBlock; row < rowEnd; row++) {
+						int aRow = row*k;
+						int col = colBlock;
+						for (; col + 3 < colEnd; col += 4) { // four columns at once, the row of a is read only once
+							int bRow0 = bOffset + col*k;
+							int bRow1 = bRow0 + k;
+							int bRow2 = bRow1 + k;
+							int bRow3 = bRow2 + k;
+							double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+							for (int inner = innerBlock; inner < innerEnd; inner++) {
+								double aValue = a[aRow + inner];
+								sum0 += aValue * b[bRow0 + inner];
+								sum1 += aValue * b[bRow1 + inner];
+								sum2 += aValue * b[bRow2 + inner];
+								sum3 += aValue * b[bRow3 + inner];
+							}
+							c[row*n + col] += sum0;
+							c[row*n + col+1] += sum1;
+							c[row*n + col+2] += sum2;
+							c[row*n + col+3] += sum3;
+						}
+						for (; col < colEnd; col++) {
+							int bRow = bOffset + col*k;
+							double sum = 0;
+							for (int inner = innerBlock; inner < innerEnd; inner++) {
+								sum += a[aRow + inner] * b[bRow + inner];
+							}
+							c[row*n + col] += sum;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Multiply two matrices: c = a * b
+	 * @param a matrix m x k
+	 * @param b matrix k x n
+	 * @param bOffset position of the first item of b in the block
+	 * @param c result matrix m x n
+	 * @param m
+	 * @param n
+	 * @param k
+	 */
+	public static void multiply(double[] a, double[] b, int bOffset, double[] c, int m, int n, int k) {
+		Arrays.fill(c, 0, m*n, 0);
+		for (int rowBlock = 0; rowBlock < m; rowBlock += BLOCK) {
+			int rowEnd = Math.min(rowBlock + BLOCK, m);
+			for (int innerBlock = 0; innerBlock < k; innerBlock += BLOCK) {
+				int innerEnd = Math.min(innerBlock + BLOCK, k);
+				for (int colBlock = 0; colBlock < n; colBlock += BLOCK) {
+					int colEnd = Math.min(colBlock + BLOCK, n);
+
+					for (int row = rowBlock; row < rowEnd; row++) {
+						int cRow = row*n;
+						for (int inner = innerBlock; inner < innerEnd; inner++) {
+							double aValue = a[row*k + inner];
+							int bRow = bOffset + inner*n;
+							for (int col = colBlock; col < colEnd; col++) {
+								c[cRow + col] += aValue * b[bRow + col];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Multiply transposed matrix by matrix and add the result: c = c + a^T * b
+	 * @param a matrix k x m
+	 * @param b matrix k x n
+	 * @param c result matrix m x n
+	 * @param cOffset position of the first item of c in the block
+	 * @param m
+	 * @param n
+	 * @param k
+	 */
+	public static void addTransposedMultiply(double[] a, double[] b, double[] c, int cOffset, int m, int n, int k) {
+		for (int rowBlock = 0; rowBlock < m; rowBlock += BLOCK) {
+			int rowEnd = Math.min(rowBlock + BLOCK, m);
+			for (int innerBlock = 0; innerBlock < k; innerBlock += BLOCK) {
+				int innerEnd = Math.min(innerBlock + BLOCK, k);
+				for (int colBlock = 0; colBlock < n; colBlock += BLOCK) {
+					int colEnd = Math.min(colBlock + BLOCK, n);
+
+					for (int row = rowBlock; row < rowEnd; row++) {
+						int cRow = cOffset + row*n;
+						for (int inner = innerBlock; inner < innerEnd; inner++) {
+							double aValue = a[inner*m + row];
+							if (aValue == 0) {
+								continue;
+							}
+							int bRow = inner*n;
+							for (int col = colBlock; col < colEnd; col++) {
+								c[cRow + col] += aValue * b[bRow + col];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a trained network, so the network can be used for classification without training
+ * The file (little-endian) has a header: magic number, version, number of inputs, number of layers, threshold,
+ * activation functions of hidden layers and of the output layer (type and parameter), number of neurons and number of weights
+ * of one neuron for each layer, number of weights. Then there are the weights (from a position divisible by 8) and CRC32
+ * of everything before it.
+ * The snapshot is saved by one write and loaded by mapping the file and copying the weights at once
+ * @author Tonda Kozk
+ *
+ */
+public class ModelFile {
+	private static int MAGIC = 0x4D4C504D; // "MLPM"
+	private static int VERSION = 1;
+
+	// types of activation functions
+	private static int SIGMOID = 1;
+	private static int TABLE_SIGMOID = 2;
+	private static int TANH = 3;
+	private static int RELU = 4;
+	private static int LEAKY_RELU = 5;
+
+	/**
+	 * Save the network to the file
+	 * @param model
+	 * @param file
+	 * @throws IOException if the file can't be written or the network has an activation function which can't be saved
+	 */
+	public static void save(TrainedMLP model, File file) throws IOException {
+		int[] layerNeuronsNum = model.getLayerNeuronsNum();
+		int[] weightStride = model.getWeightStride();
+		double[] weight = model.getWeight();
+		int weightsPosition = weightsPosition(layerNeuronsNum.length);
+
+		ByteBuffer buffer = ByteBuffer.allocate(weightsPosition + 8*weight.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(model.getInputNum());
+		buffer.putInt(layerNeuronsNum.length);
+		buffer.putDouble(model.getTreshold());
+		putActivation(buffer, model.getHiddenActivation());
+		putActivation(buffer, model.getOutputActivation());
+		for (int layerId = 0; layerId < layerNeuronsNum.length; layerId++) {
+			buffer.putInt(layerNeuronsNum[layerId]);
+			buffer.putInt(weightStride[layerId]);
+		}
+		buffer.putInt(weight.length);
+		buffer.position(weightsPosition);
+		buffer.asDoubleBuffer().put(weight);
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, weightsPosition + 8*weight.length);
+		buffer.position(weightsPosition + 8*weight.length);
+		buffer.putLong(crc.getValue());
+		buffer.flip();
+
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw"); FileChannel channel = output.getChannel()) {
+			output.setLength(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Load the network from the file
+	 * @param file
+	 * @return
+	 * @throws IOException if the file can't be read or it isn't a correct snapshot
+	 */
+	public static TrainedMLP load(File file) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+			long length = channel.size();
+			if (length < 16 || length > Integer.MAX_VALUE) {
+				throw new IOException("File "+file+" is not a model snapshot");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("File "+file+" is not a model snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version "+version+" of the model snapshot "+file);
+			}
+
+			// checksum of the whole file first, so the header can be trusted
+			CRC32 crc = new CRC32();
+			ByteBuffer content = buffer.duplicate();
+			content.position(0);
+			content.limit((int)length - 8);
+			crc.update(content);
+			if (buffer.getLong((int)length - 8) != crc.getValue()) {
+				throw new IOException("Model snapshot "+file+" is damaged (wrong checksum)");
+			}
+
+			int inputNum = buffer.getInt();
+			int layersNum = buffer.getInt();
+			if (layersNum < 2 || layersNum > length/8 || weightsPosition(layersNum) > length) {
+				throw new IOException("Wrong header of the model snapshot "+file);
+			}
+			double treshold = buffer.getDouble();
+			Activation hiddenActivation = getActivation(buffer, file);
+			Activation outputActivation = getActivation(buffer, file);
+			int[] layerNeuronsNum = new int[layersNum];
+			int[] weightStride = new int[layersNum];
+			int[] weightOffset = new int[layersNum+1];
+			for (int layerId = 0; layerId < layersNum; layerId++) {
+				layerNeuronsNum[layerId] = buffer.getInt();
+				weightStride[layerId] = buffer.getInt();
+				long offset = weightOffset[layerId] + (long)layerNeuronsNum[layerId]*weightStride[layerId];
+				if (layerNeuronsNum[layerId] <= 0 || weightStride[layerId] <= 0 || offset > length/8) {
+					throw new IOException("Wrong header of the model snapshot "+file);
+				}
+				weightOffset[layerId+1] = (int)offset;
+			}
+			int weightsNum = buffer.getInt();
+			int weightsPosition = weightsPosition(layersNum);
+			if (weightsNum != weightOffset[layersNum] || weightsPosition + 8L*weightsNum + 8 != length
+					|| weightStride[0] != inputNum+1) {
+				throw new IOException("Wrong header of the model snapshot "+file);
+			}
+
+			double[] weight = new double[weightsNum];
+			buffer.position(weightsPosition);
+			buffer.asDoubleBuffer().get(weight);
+			return new TrainedMLP(weight, layerNeuronsNum, weightStride, weightOffset, inputNum, treshold, hiddenActivation, outputActivation);
+		}
+	}
+
+	/**
+	 * Return position of the weights in the file (after the header, divisible by 8)
+	 * @param layersNum
+	 * @return
+	 */
+	private static int weightsPosition(int layersNum) {
+		int headerLength = 4*4 + 8 + 2*(4+8) + layersNum*2*4 + 4;
+		return (headerLength + 7) / 8 * 8;
+	}
+
+	/**
+	 * Write type and parameter of the activation function
+	 * @param buffer
+	 * @param activation
+	 * @throws IOException
+	 */
+	private static void putActivation(ByteBuffer buffer, Activation activation) throws IOException {
+		if (activation instanceof Activation.Sigmoid) {
+			buffer.putInt(SIGMOID);
+			buffer.putDouble(((Activation.Sigmoid)activation).getGama());
+		} else if (activation instanceof Activation.TableSigmoid) {
+			buffer.putInt(TABLE_SIGMOID);
+			buffer.putDouble(((Activation.TableSigmoid)activation).getGama());
+		} else if (activation instanceof Activation.Tanh) {
+			buffer.putInt(TANH);
+			buffer.putDouble(((Activation.Tanh)activation).getGama());
+		} else if (activation instanceof Activation.Relu) {
+			buffer.putInt(RELU);
+			buffer.putDouble(0);
+		} else if (activation instanceof Activation.LeakyRelu) {
+			buffer.putInt(LEAKY_RELU);
+			buffer.putDouble(((Activation.LeakyRelu)activation).getSlope());
+		} else {
+			throw new IOException("Activation function "+activation.getClass().getName()+" can't be saved");
+		}
+	}
+
+	/**
+	 * Read type and parameter of the activation function and create it
+	 * @param buffer
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static Activation getActivation(ByteBuffer buffer, File file) throws IOException {
+		int type = buffer.getInt();
+		double parameter = buffer.getDouble();
+		if (type == SIGMOID) {
+			return new Activation.Sigmoid(parameter);
+		} else if (type == TABLE_SIGMOID) {
+			return new Activation.TableSigmoid(parameter);
+		} else if (type == TANH) {
+			return new Activation.Tanh(parameter);
+		} else if (type == RELU) {
+			return new Activation.Relu();
+		} else if (type == LEAKY_RELU) {
+			return new Activation.LeakyRelu(parameter);
+		}
+		throw new IOException("Unknown activation function "+type+" in the model snapshot "+file);
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Bounded max-heap of the k nearest rows found so far, the worst row is on the top
+ * A row is worse than another one if it has bigger distance or the same distance and bigger id
+ * The heap can be reused for more queries (clear), so nothing is allocated for a query
+ * @author Tonda Kozk
+ *
+ */
+public class NeighbourHeap {
+	private int k;
+	private int size = 0;
+	private int[] ids;
+	private double[] distances;
+
+	/**
+	 * Constructor
+	 * @param k max number of rows in the heap
+	 */
+	public NeighbourHeap(int k) {
+		this.k = k;
+		this.ids = new int[k];
+		this.distances = new double[k];
+	}
+
+	/**
+	 * Remove all rows from the heap
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Return number of rows in the heap
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return distance of the worst row if the heap is full, infinity otherwise (a row is added only if it isn't further)
+	 * @return
+	 */
+	public double bound() {
+		return (size < k)?Double.POSITIVE_INFINITY:distances[0];
+	}
+
+	/**
+	 * Add the row if the heap isn't full or if the row is better than the worst row of the heap
+	 * @param id
+	 * @param distance
+	 */
+	public void offer(int id, double distance) {
+		if (size < k) {
+			// add to the end and move up
+			int position = size++;
+			while (position > 0) {
+				int parent = (position-1) / 2;
+				if (!worse(distance, id, distances[parent], ids[parent])) {
+					break;
+				}
+				ids[position] = ids[parent];
+				distances[position] = distances[parent];
+				position = parent;
+			}
+			ids[position] = id;
+			distances[position] = distance;
+		} else if (k > 0 && worse(distances[0], ids[0], distance, id)) {
+			siftDown(0, id, distance);
+		}
+	}
+
+	/**
+	 * Put the row to the position and move it down to its place
+	 * @param position
+	 * @param id
+	 * @param distance
+	 */
+	private void siftDown(int position, int id, double distance) {
+		while (true) {
+			int child = 2*position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child+1 < size && worse(distances[child+1], ids[child+1], distances[child], ids[child])) {
+				child++;
+			}
+			if (!worse(distances[child], ids[child], distance, id)) {
+				break;
+			}
+			ids[position] = ids[child];
+			distances[position] = distances[child];
+			position = child;
+		}
+		ids[position] = id;
+		distances[position] = distance;
+	}
+
+	/**
+	 * Return true if the first row is worse than the second one
+	 * @param distance1
+	 * @param id1
+	 * @param distance2
+	 * @param id2
+	 * @return
+	 */
+	private static boolean worse(double distance1, int id1, double distance2, int id2) {
+		return distance1 > distance2 || (distance1 == distance2 && id1 > id2);
+	}
+
+	/**
+	 * Return id of the row at the position of the heap (the heap isn't sorted)
+	 * @param position
+	 * @return
+	 */
+	public int id(int position) {
+		return ids[position];
+	}
+
+	/**
+	 * Return distance of the row at the position of the heap (the heap isn't sorted)
+	 * @param position
+	 * @return
+	 */
+	public double distance(int position) {
+		return distances[position];
+	}
+
+	/**
+	 * Write rows ordered from the nearest to the given arrays, the heap is empty after that
+	 * @param sortedIds
+	 * @param sortedDistances
+	 * @return number of rows
+	 */
+	public int sorted(int[] sortedIds, double[] sortedDistances) {
+		int count = size;
+		while (size > 0) {
+			int last = --size;
+			sortedIds[last] = ids[0];
+			sortedDistances[last] = distances[0];
+			if (size > 0) {
+				siftDown(0, ids[size], distances[size]);
+			}
+		}
+		return count;
+	}
+}
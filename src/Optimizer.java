@@ -0,0 +1,226 @@
+/**
+ * Rule for updating weights by their gradient (the direction in which the error decreases, delta*input in backpropagation)
+ * Optimizers with state keep one item of the state for each weight in flat arrays of the same layout as the weights,
+ * so an optimizer instance belongs to one network and must not be shared by networks trained at the same time
+ * @author Tonda Kozk
+ *
+ */
+public interface Optimizer {
+
+	/**
+	 * Prepare (clear) the state for the given number of weights, called before the training
+	 * @param weightsNum
+	 */
+	void init(int weightsNum);
+
+	/**
+	 * Start a new update step (one sample in online training, one mini-batch in batch training)
+	 */
+	default void nextStep() {
+	}
+
+	/**
+	 * Update weights in [from, to) by the gradient of the same layout as weights
+	 * @param weight
+	 * @param gradient
+	 * @param from
+	 * @param to
+	 * @param learningRate
+	 */
+	void update(double[] weight, double[] gradient, int from, int to, double learningRate);
+
+	/**
+	 * Update one row of weights whose gradient is delta*input[i] (online backpropagation)
+	 * @param weight
+	 * @param from position of the row in the block of weights
+	 * @param delta
+	 * @param input
+	 * @param length
+	 * @param learningRate
+	 */
+	void updateRow(double[] weight, int from, double delta, double[] input, int length, double learningRate);
+
+	/**
+	 * Stochastic gradient descent, weight += learningRate*gradient
+	 */
+	class Sgd implements Optimizer {
+		@Override
+		public void init(int weightsNum) {
+		}
+
+		@Override
+		public void update(double[] weight, double[] gradient, int from, int to, double learningRate) {
+			for (int weightId = from; weightId < to; weightId++) {
+				weight[weightId] = weight[weightId] + learningRate * gradient[weightId];
+			}
+		}
+
+		@Override
+		public void updateRow(double[] weight, int from, double delta, double[] input, int length, double learningRate) {
+			Vectors.updateRow(weight, from, learningRate * delta, input, length);
+		}
+	}
+
+	/**
+	 * Classic momentum, velocity = momentum*velocity + learningRate*gradient, weight += velocity
+	 * (Nesterov variant: weight += momentum*velocity + learningRate*gradient with the new velocity - the step looks ahead)
+	 */
+	class Momentum implements Optimizer {
+		private final double momentum;
+		private final boolean nesterov;
+		private double[] velocity;
+
+		/**
+		 * Constructor
+		 * @param momentum part of the previous change kept in the next change (e.g. 0.9)
+		 * @param nesterov true for Nesterov accelerated gradient
+		 */
+		public Momentum(double momentum, boolean nesterov) {
+			this.momentum = momentum;
+			this.nesterov = nesterov;
+		}
+
+		@Override
+		public void init(int weightsNum) {
+			velocity = new double[weightsNum];
+		}
+
+		@Override
+		public void update(double[] weight, double[] gradient, int from, int to, double learningRate) {
+			for (int weightId = from; weightId < to; weightId++) {
+				double step = learningRate * gradient[weightId];
+				double newVelocity = momentum * velocity[weightId] + step;
+				velocity[weightId] = newVelocity;
+				weight[weightId] += nesterov ? momentum * newVelocity + step : newVelocity;
+			}
+		}
+
+		@Override
+		public void updateRow(double[] weight, int from, double delta, double[] input, int length, double learningRate) {
+			double change = learningRate * delta;
+			for (int id = 0; id < length; id++) {
+				double step = change * input[id];
+				double newVelocity = momentum * velocity[from + id] + step;
+				velocity[from + id] = newVelocity;
+				weight[from + id] += nesterov ? momentum * newVelocity + step : newVelocity;
+			}
+		}
+	}
+
+	/**
+	 * RMSProp, the step of every weight is divided by the root of the moving average of its squared gradients
+	 */
+	class RmsProp implements Optimizer {
+		private final double decay;
+		private final double epsilon;
+		private double[] meanSquare;
+
+		/**
+		 * Constructor
+		 * @param decay weight of the previous average (e.g. 0.9)
+		 * @param epsilon added to the root, so there is no division by zero (e.g. 1e-8)
+		 */
+		public RmsProp(double decay, double epsilon) {
+			this.decay = decay;
+			this.epsilon = epsilon;
+		}
+
+		@Override
+		public void init(int weightsNum) {
+			meanSquare = new double[weightsNum];
+		}
+
+		@Override
+		public void update(double[] weight, double[] gradient, int from, int to, double learningRate) {
+			for (int weightId = from; weightId < to; weightId++) {
+				double g = gradient[weightId];
+				double square = decay * meanSquare[weightId] + (1 - decay) * g * g;
+				meanSquare[weightId] = square;
+				weight[weightId] += learningRate * g / (Math.sqrt(square) + epsilon);
+			}
+		}
+
+		@Override
+		public void updateRow(double[] weight, int from, double delta, double[] input, int length, double learningRate) {
+			for (int id = 0; id < length; id++) {
+				double g = delta * input[id];
+				double square = decay * meanSquare[from + id] + (1 - decay) * g * g;
+				meanSquare[from + id] = square;
+				weight[from + id] += learningRate * g / (Math.sqrt(square) + epsilon);
+			}
+		}
+	}
+
+	/**
+	 * Adam, moving averages of gradients and of squared gradients with bias correction
+	 */
+	class Adam implements Optimizer {
+		private final double beta1;
+		private final double beta2;
+		private final double epsilon;
+		private double[] mean;
+		private double[] meanSquare;
+		private int step;
+		private double correction1; // 1 - beta1^step
+		private double correction2; // 1 - beta2^step
+
+		/**
+		 * Constructor with usual parameters (0.9, 0.999, 1e-8)
+		 */
+		public Adam() {
+			this(0.9, 0.999, 1e-8);
+		}
+
+		/**
+		 * Constructor
+		 * @param beta1 decay of the average of gradients
+		 * @param beta2 decay of the average of squared gradients
+		 * @param epsilon added to the root, so there is no division by zero
+		 */
+		public Adam(double beta1, double beta2, double epsilon) {
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.epsilon = epsilon;
+		}
+
+		@Override
+		public void init(int weightsNum) {
+			mean = new double[weightsNum];
+			meanSquare = new double[weightsNum];
+			step = 0;
+		}
+
+		@Override
+		public void nextStep() {
+			step++;
+			correction1 = 1 - Math.pow(beta1, step);
+			correction2 = 1 - Math.pow(beta2, step);
+		}
+
+		@Override
+		public void update(double[] weight, double[] gradient, int from, int to, double learningRate) {
+			double rate = learningRate * Math.sqrt(correction2) / correction1;
+			for (int weightId = from; weightId < to; weightId++) {
+				double g = gradient[weightId];
+				double m = beta1 * mean[weightId] + (1 - beta1) * g;
+				double v = beta2 * meanSquare[weightId] + (1 - beta2) * g * g;
+				mean[weightId] = m;
+				meanSquare[weightId] = v;
+				weight[weightId] += rate * m / (Math.sqrt(v) + epsilon);
+			}
+		}
+
+		@Override
+		public void updateRow(double[] weight, int from, double delta, double[] input, int length, double learningRate) {
+			double rate = learningRate * Math.sqrt(correction2) / correction1;
+			for (int id = 0; id < length; id++) {
+				double g = delta * input[id];
+				double m = beta1 * mean[from + id] + (1 - beta1) * g;
+				double v = beta2 * meanSquare[from + id] + (1 - beta2) * g * g;
+				mean[from + id] = m;
+				meanSquare[from + id] = v;
+				weight[from + id] += rate * m / (Math.sqrt(v) + epsilon);
+			}
+		}
+	}
+}
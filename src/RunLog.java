@@ -0,0 +1,289 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of a run of the genetic algorithm, the run can be resumed from the last complete generation in the log
+ * The file starts with magic number and version, then there are records: length of data (int), type (byte), data, CRC32 of type and data (long)
+ * Evaluation record holds one evaluated gene, generation record holds generation counter, all genes of the generation,
+ * the best gene and state of the random generator
+ * If the program is stopped while writing, the incomplete record at the end of the file is removed when the log is opened again
+ * @author Tonda Kozk
+ *
+ */
+public class RunLog implements Closeable {
+	private static int MAGIC = 0x47414C47; // "GALG"
+	private static int VERSION = 2; // version 2 added lineage of genes
+	private static byte EVALUATION = 1;
+	private static byte GENERATION = 2;
+	private static int MAX_RECORD_LENGTH = 1 << 26;
+
+	private FileOutputStream fileOutput;
+	private DataOutputStream output;
+
+	// content of the log read when it was opened
+	private List<Gene> evaluations = new ArrayList<>(); // evaluated genes (without data)
+	private int generationCounter = 0; // counter of the last complete generation, 0 if there is no generation in the log
+	private List<Gene> population = new ArrayList<>(); // genes of the last complete generation
+	private Gene bestGene; // the best gene of the last complete generation
+	private byte[] randomState; // state of the random generator of the last complete generation
+
+	/**
+	 * Open the log, content of an existing log is read and new records are appended after the last complete record
+	 * @param file
+	 * @throws IOException
+	 */
+	public RunLog(File file) throws IOException {
+		long validLength = file.exists() ? read(file) : 0;
+		try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) { // remove incomplete record from the end
+			truncate.setLength(validLength);
+		}
+
+		fileOutput = new FileOutputStream(file, true);
+		output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+		if (validLength == 0) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.flush();
+		}
+	}
+
+	/**
+	 * Read all complete records of the log
+	 * @param file
+	 * @return length of the valid part of the file
+	 * @throws IOException
+	 */
+	private long read(File file) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			long validLength;
+			try {
+				if (input.readInt() != MAGIC) {
+					throw new IOException("File "+file+" is not a run log");
+				}
+				int version = input.readInt();
+				if (version != VERSION) {
+					throw new IOException("Run log "+file+" has version "+version+", only version "+VERSION+" can be continued");
+				}
+				validLength = 8;
+			} catch (EOFException e) { // the header wasn't written completely
+				return 0;
+			}
+
+			while (true) {
+				byte[] data;
+				byte type;
+				try {
+					int length = input.readInt();
+					if (length < 0 || length > MAX_RECORD_LENGTH) {
+						return validLength;
+					}
+					type = input.readByte();
+					data = new byte[length];
+					input.readFully(data);
+					CRC32 crc = new CRC32();
+					crc.update(type);
+					crc.update(data);
+					if (input.readLong() != crc.getValue()) {
+						return validLength;
+					}
+					validLength += 4 + 1 + length + 8;
+				} catch (EOFException e) {
+					return validLength;
+				}
+				readRecord(type, new DataInputStream(new ByteArrayInputStream(data)));
+			}
+		}
+	}
+
+	/**
+	 * Read data of one record
+	 * @param type
+	 * @param data
+	 * @throws IOException
+	 */
+	private void readRecord(byte type, DataInputStream data) throws IOException {
+		if (type == EVALUATION) {
+			evaluations.add(readGene(data));
+		} else if (type == GENERATION) {
+			generationCounter = data.readInt();
+			int genesNum = data.readInt();
+			population = new ArrayList<>();
+			for (int geneId = 0; geneId < genesNum; geneId++) {
+				population.add(readGene(data));
+			}
+			bestGene = readGene(data);
+			randomState = new byte[data.readInt()];
+			data.readFully(randomState);
+		}
+	}
+
+	/**
+	 * Append record with evaluated gene
+	 * @param gene
+	 * @throws IOException
+	 */
+	public synchronized void appendEvaluation(Gene gene) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		writeGene(data, gene);
+		writeRecord(EVALUATION, bytes.toByteArray());
+		output.flush();
+	}
+
+	/**
+	 * Append record with complete generation, the record is written to the disk before the method returns
+	 * @param generationCounter
+	 * @param genes
+	 * @param bestGene
+	 * @param random
+	 * @throws IOException
+	 */
+	public synchronized void appendGeneration(int generationCounter, List<Gene> genes, Gene bestGene, Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(generationCounter);
+		data.writeInt(genes.size());
+		for (Gene gene : genes) {
+			writeGene(data, gene);
+		}
+		writeGene(data, bestGene);
+
+		ByteArrayOutputStream randomBytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream randomOutput = new ObjectOutputStream(randomBytes)) {
+			randomOutput.writeObject(random);
+		}
+		data.writeInt(randomBytes.size());
+		data.write(randomBytes.toByteArray());
+
+		writeRecord(GENERATION, bytes.toByteArray());
+		output.flush();
+		fileOutput.getFD().sync();
+	}
+
+	/**
+	 * Write one record
+	 * @param type
+	 * @param data
+	 * @throws IOException
+	 */
+	private void writeRecord(byte type, byte[] data) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(data);
+		output.writeInt(data.length);
+		output.writeByte(type);
+		output.write(data);
+		output.writeLong(crc.getValue());
+	}
+
+	/**
+	 * Write configuration, lineage and evaluation of the gene
+	 * @param data
+	 * @param gene
+	 * @throws IOException
+	 */
+	private void writeGene(DataOutputStream data, Gene gene) throws IOException {
+		data.writeInt(gene.hiddenNum);
+		for (int layerId = 0; layerId < gene.hiddenNum; layerId++) {
+			data.writeInt(gene.neurons[layerId]);
+		}
+		data.writeDouble(gene.gama);
+		data.writeDouble(gene.errorRate);
+		data.writeInt(gene.stuckIterations);
+		data.writeInt(gene.mutationNum);
+		data.writeDouble(gene.evaluation);
+		data.writeInt(gene.lineage);
+	}
+
+	/**
+	 * Read configuration, lineage and evaluation of the gene, the gene has no data
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	private Gene readGene(DataInputStream data) throws IOException {
+		int hiddenNum = data.readInt();
+		int[] neurons = new int[hiddenNum];
+		for (int layerId = 0; layerId < hiddenNum; layerId++) {
+			neurons[layerId] = data.readInt();
+		}
+		double gama = data.readDouble();
+		double errorRate = data.readDouble();
+		int stuckIterations = data.readInt();
+		int mutationNum = data.readInt();
+		Gene gene = new Gene((double[][])null, null, hiddenNum, neurons, gama, errorRate, stuckIterations, mutationNum, null, null);
+		gene.evaluation = data.readDouble();
+		gene.lineage = data.readInt();
+		return gene;
+	}
+
+	/**
+	 * Return evaluated genes read from the log (genes have no data)
+	 * @return
+	 */
+	public List<Gene> getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Return counter of the last complete generation in the log, 0 if there is no generation
+	 * @return
+	 */
+	public int getGenerationCounter() {
+		return generationCounter;
+	}
+
+	/**
+	 * Return genes of the last complete generation in the log (genes have no data)
+	 * @return
+	 */
+	public List<Gene> getPopulation() {
+		return population;
+	}
+
+	/**
+	 * Return the best gene of the last complete generation in the log (gene has no data)
+	 * @return
+	 */
+	public Gene getBestGene() {
+		return bestGene;
+	}
+
+	/**
+	 * Return random generator in the state of the last complete generation in the log
+	 * @return
+	 * @throws IOException
+	 */
+	public Random getRandom() throws IOException {
+		try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(randomState))) {
+			return (Random) input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Wrong state of the random generator", e);
+		}
+	}
+
+	/**
+	 * Close the log
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads chunks of samples from a source in a background thread, so the next chunks are ready while the current one is used
+ * There is a fixed number of chunk buffers - the reader waits when all of them are full, a chunk is reused when it is released
+ * @author Tonda Kozk
+ *
+ */
+public class SamplePrefetcher implements Closeable {
+
+	/**
+	 * Buffer of samples read from the source
+	 */
+	public static class Chunk {
+		public final double[][] rows;
+		public int count; // number of samples in the rows
+		private boolean last; // no chunks follow in the pass
+		private IOException error; // error of reading, the chunk is the last one
+
+		private Chunk(int size, int rowLength) {
+			rows = new double[size][rowLength];
+		}
+	}
+
+	private SampleSource source;
+	private BlockingQueue<Chunk> free; // chunks which can be filled
+	private BlockingQueue<Chunk> filled; // chunks ready for use
+	private ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "sample-prefetcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Constructor
+	 * @param source
+	 * @param chunkSize number of samples in one chunk
+	 * @param chunksNum number of chunk buffers (at least 2, so one chunk can be read while another one is used)
+	 * @param rowLength length of a sample (features and result)
+	 */
+	public SamplePrefetcher(SampleSource source, int chunkSize, int chunksNum, int rowLength) {
+		this.source = source;
+		chunksNum = Math.max(2, chunksNum);
+		free = new ArrayBlockingQueue<>(chunksNum);
+		filled = new ArrayBlockingQueue<>(chunksNum);
+		for (int chunkId = 0; chunkId < chunksNum; chunkId++) {
+			free.add(new Chunk(Math.max(1, chunkSize), rowLength));
+		}
+	}
+
+	/**
+	 * Start reading all samples of the source from the first one, chunks of the previous pass must be taken and released first
+	 */
+	public void startPass() {
+		reader.execute(() -> {
+			try {
+				IOException rewindError = null;
+				try {
+					source.rewind();
+				} catch (IOException e) {
+					rewindError = e;
+				}
+				while (true) {
+					Chunk chunk = free.take(); // the error of rewind waits for a free chunk too, so next() always gets it
+					try {
+						if (rewindError != null) {
+							throw rewindError;
+						}
+						chunk.count = source.read(chunk.rows);
+						chunk.last = (chunk.count == 0);
+						chunk.error = null;
+					} catch (IOException e) {
+						chunk.count = 0;
+						chunk.last = true;
+						chunk.error = e;
+					}
+					filled.put(chunk);
+					if (chunk.last) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) { // closed
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+
+	/**
+	 * Return next chunk of the pass, wait until it is read
+	 * @return chunk or null at the end of the pass
+	 * @throws IOException if reading of the source failed
+	 * @throws InterruptedException
+	 */
+	public Chunk next() throws IOException, InterruptedException {
+		Chunk chunk = filled.take();
+		if (chunk.last) {
+			IOException error = chunk.error;
+			free.put(chunk);
+			if (error != null) {
+				throw error;
+			}
+			return null;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Return the chunk for reading of next samples
+	 * @param chunk
+	 */
+	public void release(Chunk chunk) {
+		free.add(chunk);
+	}
+
+	/**
+	 * Stop the reader
+	 */
+	@Override
+	public void close() {
+		reader.shutdownNow();
+	}
+}
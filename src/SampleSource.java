@@ -0,0 +1,77 @@
+import java.io.IOException;
+
+/**
+ * Source of training samples which are read in chunks, so all samples needn't be in memory at once
+ * A sample is a row of features with the expected result at the end (the same layout as the rows of the data files)
+ * @author Tonda Kozk
+ *
+ */
+public interface SampleSource {
+
+	/**
+	 * Start reading from the first sample again
+	 * @throws IOException
+	 */
+	void rewind() throws IOException;
+
+	/**
+	 * Read next samples into the rows
+	 * @param rows buffers for samples, every row has at least features+1 items
+	 * @return number of samples read (at most rows.length), 0 if there are no more samples
+	 * @throws IOException
+	 */
+	int read(double[][] rows) throws IOException;
+
+	/**
+	 * Samples of a data set (e.g. mapped from a file), rows are widened to doubles when they are read
+	 */
+	class OfDataset implements SampleSource {
+		private final Dataset dataset;
+		private int position = 0;
+
+		public OfDataset(Dataset dataset) {
+			this.dataset = dataset;
+		}
+
+		@Override
+		public void rewind() {
+			position = 0;
+		}
+
+		@Override
+		public int read(double[][] rows) {
+			int count = Math.min(rows.length, dataset.getRowsNum() - position);
+			for (int rowId = 0; rowId < count; rowId++) {
+				dataset.row(position++, rows[rowId]);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Samples of rows in memory
+	 */
+	class OfRows implements SampleSource {
+		private final double[][] data;
+		private int position = 0;
+
+		public OfRows(double[][] data) {
+			this.data = data;
+		}
+
+		@Override
+		public void rewind() {
+			position = 0;
+		}
+
+		@Override
+		public int read(double[][] rows) {
+			int count = Math.min(rows.length, data.length - position);
+			for (int rowId = 0; rowId < count; rowId++) {
+				double[] row = data[position++];
+				System.arraycopy(row, 0, rows[rowId], 0, Math.min(row.length, rows[rowId].length));
+			}
+			return count;
+		}
+	}
+}
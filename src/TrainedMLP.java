@@ -0,0 +1,223 @@
+import java.util.Arrays;
+
+/**
+ * Trained multi-layer perceptron used for classification
+ * The model doesn't change, so any number of threads can classify by one instance - layers are computed into
+ * buffers of the calling thread or into buffers given by the caller
+ * @author Tonda Kozk
+ *
+ */
+public class TrainedMLP {
+	private final double[] weight; // weights of all layers in one row-major block (same layout as in MLP)
+	private final int[] layerNeuronsNum; // numbers of neurons in hidden layers and in the output layer (last)
+	private final int[] weightStride; // number of weights of one neuron in the layer
+	private final int[] weightOffset; // position of the first weight of the layer in the block
+	private final int hiddenNum; // number of hidden layers
+	private final int inputNum; // number of inputs (without threshold)
+	private final double treshold;
+	private final Activation hiddenActivation;
+	private final Activation outputActivation;
+
+	// layer buffers of each thread shared by all models (a model can be short-lived), they grow to the largest layers used by the thread
+	private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[0][]);
+
+	/**
+	 * Constructor, the arrays are not copied
+	 * @param weight
+	 * @param layerNeuronsNum
+	 * @param weightStride
+	 * @param weightOffset
+	 * @param inputNum
+	 * @param treshold
+	 * @param hiddenActivation
+	 * @param outputActivation
+	 */
+	TrainedMLP(double[] weight, int[] layerNeuronsNum, int[] weightStride, int[] weightOffset, int inputNum, double treshold, Activation hiddenActivation, Activation outputActivation) {
+		this.weight = weight;
+		this.layerNeuronsNum = layerNeuronsNum;
+		this.weightStride = weightStride;
+		this.weightOffset = weightOffset;
+		this.hiddenNum = layerNeuronsNum.length-1;
+		this.inputNum = inputNum;
+		this.treshold = treshold;
+		this.hiddenActivation = hiddenActivation;
+		this.outputActivation = outputActivation;
+	}
+
+	/**
+	 * Return block of weights (not a copy)
+	 * @return
+	 */
+	double[] getWeight() {
+		return weight;
+	}
+	
+	/**
+	 * Return numbers of neurons in hidden layers and in the output layer (last)
+	 * @return
+	 */
+	int[] getLayerNeuronsNum() {
+		return layerNeuronsNum;
+	}
+	
+	/**
+	 * Return numbers of weights of one neuron in the layers
+	 * @return
+	 */
+	int[] getWeightStride() {
+		return weightStride;
+	}
+	
+	/**
+	 * Return number of inputs (without threshold)
+	 * @return
+	 */
+	int getInputNum() {
+		return inputNum;
+	}
+	
+	/**
+	 * Return input of the threshold
+	 * @return
+	 */
+	double getTreshold() {
+		return treshold;
+	}
+	
+	/**
+	 * Return activation function of hidden layers
+	 * @return
+	 */
+	Activation getHiddenActivation() {
+		return hiddenActivation;
+	}
+	
+	/**
+	 * Return activation function of the output layer
+	 * @return
+	 */
+	Activation getOutputActivation() {
+		return outputActivation;
+	}
+	
+	/**
+	 * Create buffers for layers which can be used for classification by one thread
+	 * @return
+	 */
+	public double[][] newScratch() {
+		double[][] layers = new double[hiddenNum+1][0];
+		for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+			layers[layerId] = new double[layerNeuronsNum[layerId]];
+		}
+		return layers;
+	}
+
+	/**
+	 * Return layer buffers of the calling thread, they are enlarged if the layers of this model don't fit in them
+	 * @return
+	 */
+	private double[][] scratch() {
+		double[][] layers = SCRATCH.get();
+		if (layers.length <= hiddenNum) {
+			layers = Arrays.copyOf(layers, hiddenNum+1);
+			SCRATCH.set(layers);
+		}
+		for (int layerId = 0; layerId <= hiddenNum; layerId++) {
+			if (layers[layerId] == null || layers[layerId].length < layerNeuronsNum[layerId]) {
+				layers[layerId] = new double[layerNeuronsNum[layerId]];
+			}
+		}
+		return layers;
+	}
+
+	/**
+	 * Classify the features and return the digit which is the result of the classification
+	 * @param features
+	 * @return
+	 */
+	public int classify(double[] features) {
+		return classify(features, scratch());
+	}
+
+	/**
+	 * Classify the features using the given buffers for layers (created by newScratch, they can be longer than the layers)
+	 * @param features
+	 * @param layers
+	 * @return
+	 */
+	public int classify(double[] features, double[][] layers) {
+		double[] outLayer = forward(features, layers);
+		double max = Double.NEGATIVE_INFINITY;
+		int maxId = 0;
+		for (int outId = 0; outId < layerNeuronsNum[hiddenNum]; outId++) {
+			if (outLayer[outId] > max) {
+				max = outLayer[outId];
+				maxId = outId;
+			}
+		}
+		return maxId;
+	}
+
+	/**
+	 * Classify all rows of the data, results are saved into out
+	 * @param data
+	 * @param out
+	 */
+	public void classifyBatch(double[][] data, int[] out) {
+		double[][] layers = scratch();
+		for (int dataId = 0; dataId < data.length; dataId++) {
+			out[dataId] = classify(data[dataId], layers);
+		}
+	}
+
+	/**
+	 * Classify all rows of the data set, rows are widened to doubles one by one, results are saved into out
+	 * @param data
+	 * @param out
+	 */
+	public void classifyBatch(Dataset data, int[] out) {
+		double[][] layers = scratch();
+		double[] row = new double[data.getFeaturesNum()+1];
+		for (int dataId = 0; dataId < data.getRowsNum(); dataId++) {
+			out[dataId] = classify(data.row(dataId, row), layers);
+		}
+	}
+	
+	/**
+	 * Compute all layers for the features, the threshold input is added to the sum directly, so the features can
+	 * have any length (e.g. with the expected result at the end)
+	 * The last neuron of each hidden layer isn't computed, it is zero
+	 * @param features
+	 * @param layers buffers for hidden layers and output layer (last), they can be longer than the layers
+	 * @return output layer (its buffer)
+	 */
+	double[] forward(double[] features, double[][] layers) {
+		// classify in the first hidden layer (inputs and threshold)
+		int stride = weightStride[0];
+		for (int neuronId = 0; neuronId < layerNeuronsNum[0]-1; neuronId++) {
+			int from = weightOffset[0] + neuronId*stride;
+			double sum = Vectors.dot(features, 0, weight, from, inputNum) + weight[from + inputNum]*treshold;
+			layers[0][neuronId] = hiddenActivation.value(sum);
+		}
+		layers[0][layerNeuronsNum[0]-1] = 0; // the buffer can be shared with a bigger model
+
+		// classify in other hidden layers
+		for (int layerId = 1; layerId < hiddenNum; layerId++) {
+			stride = weightStride[layerId];
+			for (int neuronId = 0; neuronId < layerNeuronsNum[layerId]-1; neuronId++) {
+				double sum = Vectors.dot(layers[layerId-1], 0, weight, weightOffset[layerId] + neuronId*stride, stride);
+				layers[layerId][neuronId] = hiddenActivation.value(sum);
+			}
+			layers[layerId][layerNeuronsNum[layerId]-1] = 0;
+		}
+
+		// Classify in output layer
+		stride = weightStride[hiddenNum];
+		double[] outLayer = layers[hiddenNum];
+		for (int neuronId = 0; neuronId < layerNeuronsNum[hiddenNum]; neuronId++) {
+			double sum = Vectors.dot(layers[hiddenNum-1], 0, weight, weightOffset[hiddenNum] + neuronId*stride, stride);
+			outLayer[neuronId] = outputActivation.value(sum);
+		}
+		return outLayer;
+	}
+}
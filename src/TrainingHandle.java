@@ -0,0 +1,255 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Handle of a running MLP training - the training can be cancelled (by cancel() or by interruption of the training thread),
+ * it stops at the deadline, which can be changed while it runs, and the handle keeps a copy of the weights
+ * with the best accuracy seen so far, so a usable network can be taken before the training ends
+ * The training checks the handle between mini-batches (every 256 samples in online training), so it stops soon after the request,
+ * the unfinished iteration isn't evaluated
+ * The deadline is counted from the start of the training, so time which the training started by MLP.trainAsync waits
+ * in the queue of the executor isn't included
+ * @author Tonda Kozk
+ *
+ */
+public class TrainingHandle {
+	private volatile boolean cancelled = false;
+	private volatile long deadline = Long.MAX_VALUE; // System.nanoTime() of the deadline, Long.MAX_VALUE if there is no deadline
+	private long timeout; // time for the training in milliseconds, the deadline is set from it when the training starts
+	private boolean started = false; // the training started (timeout and started are guarded by the handle)
+	private volatile Thread thread; // thread which runs the training, null if the training isn't running
+	private volatile int iterations = 0; // number of finished iterations
+	private volatile boolean done = false;
+	private volatile TrainingListener.StopReason stopReason; // null while the training runs (and if it failed)
+	private volatile Future<Double> future; // result of the training started by MLP.trainAsync, null for MLP.train(handle)
+
+	// the best snapshot
+	private MLP mlp;
+	private double[] bestWeight;
+	private double bestAccuracy = -1;
+	private int bestIteration = 0;
+
+	/**
+	 * Constructor
+	 * @param timeout time for the training in milliseconds from its start, 0 or less means no deadline
+	 */
+	public TrainingHandle(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set time for the training - before the training starts it is counted from the start, while the training runs
+	 * the deadline is set to the given time from now (the deadline can be extended or shortened)
+	 * @param timeout time in milliseconds, 0 or less means no deadline
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+		if (started) {
+			startDeadline();
+		}
+	}
+
+	/**
+	 * Set the deadline to the timeout from now
+	 */
+	private void startDeadline() {
+		deadline = (timeout > 0) ? System.nanoTime() + timeout*1000000 : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Return time to the deadline in milliseconds (negative if it is over), Long.MAX_VALUE if there is no deadline
+	 * Before the training starts it is the whole timeout
+	 * @return
+	 */
+	public synchronized long getRemainingTime() {
+		if (!started) {
+			return (timeout > 0) ? timeout : Long.MAX_VALUE;
+		}
+		return (deadline == Long.MAX_VALUE) ? Long.MAX_VALUE : (deadline - System.nanoTime()) / 1000000;
+	}
+
+	/**
+	 * Ask the training to stop, it stops after the current mini-batch and the best snapshot stays available
+	 * Training started by MLP.trainAsync which is still waiting in the queue of the executor doesn't run at all,
+	 * the handle is done at once
+	 */
+	public void cancel() {
+		cancelled = true;
+		Future<Double> future = this.future;
+		if (future != null) {
+			synchronized (this) {
+				if (!started) {
+					future.cancel(false); // done() of the task finishes the handle
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return true if the training was asked to stop by cancel()
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Return true if the training stopped
+	 * @return
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Return why the training stopped, null while it runs or if it failed
+	 * @return
+	 */
+	public TrainingListener.StopReason getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * Return number of finished iterations
+	 * @return
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Wait until the training started by MLP.trainAsync ends
+	 * @return part of correctly classified training samples in the last finished iteration
+	 * @throws InterruptedException
+	 * @throws ExecutionException if the training failed
+	 * @throws CancellationException if the training was cancelled before it started
+	 */
+	public double await() throws InterruptedException, ExecutionException {
+		if (future == null) {
+			throw new IllegalStateException("The training wasn't started by MLP.trainAsync");
+		}
+		return future.get();
+	}
+
+	/**
+	 * Return network with the best weights seen so far (a copy, the training can continue)
+	 * @return network or null if no iteration is finished yet
+	 */
+	public synchronized TrainedMLP getBestModel() {
+		return (bestWeight == null) ? null : mlp.getModel(bestWeight.clone());
+	}
+
+	/**
+	 * Return part of correctly classified training samples in the iteration of the best snapshot, -1 if there is no snapshot
+	 * @return
+	 */
+	public synchronized double getBestAccuracy() {
+		return bestAccuracy;
+	}
+
+	/**
+	 * Return number of the iteration of the best snapshot, 0 if there is no snapshot
+	 * @return
+	 */
+	public synchronized int getBestIteration() {
+		return bestIteration;
+	}
+
+	/**
+	 * Create task of the training started by MLP.trainAsync, its result is waited for by await()
+	 * The handle is done when the task is cancelled before the training starts
+	 * @param training
+	 * @return task for the executor
+	 */
+	FutureTask<Double> task(Callable<Double> training) {
+		FutureTask<Double> task = new FutureTask<Double>(training) {
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					cancelledBeforeStart();
+				}
+			}
+		};
+		this.future = task;
+		return task;
+	}
+
+	/**
+	 * Finish the handle if the task of the training was cancelled before the training started
+	 */
+	private synchronized void cancelledBeforeStart() {
+		if (!started) {
+			this.cancelled = true;
+			this.stopReason = TrainingListener.StopReason.CANCELLED;
+			this.done = true;
+		}
+	}
+
+	/**
+	 * Called by the training thread when the training starts, the deadline is counted from now
+	 * @param mlp
+	 * @return false if the task of the training was cancelled before, the training must not run
+	 */
+	synchronized boolean started(MLP mlp) {
+		Future<Double> future = this.future;
+		if (future != null && future.isCancelled()) {
+			cancelledBeforeStart();
+			return false;
+		}
+		this.started = true;
+		startDeadline();
+		this.mlp = mlp;
+		this.thread = Thread.currentThread();
+		this.stopReason = null;
+		this.done = false;
+		return true;
+	}
+
+	/**
+	 * Called by the training thread when the training stops
+	 * @param reason null if the training failed
+	 */
+	void stopped(TrainingListener.StopReason reason) {
+		this.thread = null;
+		this.stopReason = reason;
+		this.done = true;
+	}
+
+	/**
+	 * Return the reason to stop if the training should stop now (cancelled, interrupted or deadline is over), otherwise null
+	 * It can be called by any thread of the training
+	 * @return
+	 */
+	TrainingListener.StopReason checkStop() {
+		Thread thread = this.thread;
+		if (cancelled || (thread != null && thread.isInterrupted())) {
+			return TrainingListener.StopReason.CANCELLED;
+		}
+		long deadline = this.deadline;
+		if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+			return TrainingListener.StopReason.DEADLINE;
+		}
+		return null;
+	}
+
+	/**
+	 * Called after every finished iteration, the weights are copied if the accuracy is the best so far
+	 * @param iteration
+	 * @param accuracy
+	 * @param weight
+	 */
+	synchronized void iterationFinished(int iteration, double accuracy, double[] weight) {
+		iterations = iteration;
+		if (accuracy > bestAccuracy) {
+			if (bestWeight == null || bestWeight.length != weight.length) {
+				bestWeight = new double[weight.length];
+			}
+			System.arraycopy(weight, 0, bestWeight, 0, weight.length);
+			bestAccuracy = accuracy;
+			bestIteration = iteration;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Listener of MLP training, it is told about every iteration (epoch), every mutation and the end of the training
+ * Methods are called by the training thread, they should be fast, because they are called inside the training loop
+ * @author Tonda Kozk
+ *
+ */
+public interface TrainingListener {
+
+	/**
+	 * Why the training stopped
+	 * TARGET - required error rate was reached
+	 * MAX_ITERATIONS - max number of iterations was reached
+	 * MAX_TRAINING_TIME - time for the training is over
+	 * CANCELLED - the training was cancelled or interrupted through its TrainingHandle
+	 * DEADLINE - deadline of the TrainingHandle is over
+	 */
+	enum StopReason {TARGET, MAX_ITERATIONS, MAX_TRAINING_TIME, CANCELLED, DEADLINE}
+
+	/**
+	 * Statistics of one iteration over all training data
+	 */
+	class Epoch {
+		public final int iteration; // number of the iteration, from 1
+		public final long samples; // number of trained samples
+		public final long time; // time of the iteration in nanoseconds
+		public final long forwardTime; // time of forward passes in nanoseconds (summed over threads)
+		public final long backwardTime; // time of backpropagation and weight updates in nanoseconds (summed over threads)
+		public final double accuracy; // part of correctly classified samples
+		public final double meanSquaredError; // mean of (expected output - output)^2 over samples and output neurons
+
+		public Epoch(int iteration, long samples, long time, long forwardTime, long backwardTime, double accuracy, double meanSquaredError) {
+			this.iteration = iteration;
+			this.samples = samples;
+			this.time = time;
+			this.forwardTime = forwardTime;
+			this.backwardTime = backwardTime;
+			this.accuracy = accuracy;
+			this.meanSquaredError = meanSquaredError;
+		}
+
+		/**
+		 * Return number of samples trained in one second
+		 * @return
+		 */
+		public double getSamplesPerSecond() {
+			return (time == 0)?0:samples * 1e9 / time;
+		}
+
+		@Override
+		public String toString() {
+			return "iteration "+iteration+": "+Math.round(getSamplesPerSecond())+" samples/s, forward "+(forwardTime/1000000)+" ms, backward "
+					+(backwardTime/1000000)+" ms, accuracy "+accuracy+", MSE "+meanSquaredError;
+		}
+	}
+
+	/**
+	 * Called after every iteration over all training data
+	 * @param epoch
+	 */
+	default void epochFinished(Epoch epoch) {
+	}
+
+	/**
+	 * Called when weights are mutated, because the training didn't improve for stuckIterations iterations
+	 * @param iteration
+	 */
+	default void mutation(int iteration) {
+	}
+
+	/**
+	 * Called when the training stops
+	 * @param reason
+	 * @param iterations number of iterations
+	 * @param time time of the training in milliseconds
+	 * @param accuracy accuracy of the last iteration
+	 */
+	default void trainingStopped(StopReason reason, int iterations, long time, double accuracy) {
+	}
+
+	/**
+	 * Listener summing statistics of any number of trainings (it can be shared by trainings running concurrently)
+	 */
+	class Summary implements TrainingListener {
+		private long trainings;
+		private long iterations;
+		private long samples;
+		private long time;
+		private long forwardTime;
+		private long backwardTime;
+		private long mutations;
+		private long[] stopReasons = new long[StopReason.values().length];
+
+		@Override
+		public synchronized void epochFinished(Epoch epoch) {
+			iterations++;
+			samples += epoch.samples;
+			time += epoch.time;
+			forwardTime += epoch.forwardTime;
+			backwardTime += epoch.backwardTime;
+		}
+
+		@Override
+		public synchronized void mutation(int iteration) {
+			mutations++;
+		}
+
+		@Override
+		public synchronized void trainingStopped(StopReason reason, int iterations, long time, double accuracy) {
+			trainings++;
+			stopReasons[reason.ordinal()]++;
+		}
+
+		/**
+		 * Return number of trainings which stopped for the reason
+		 * @param reason
+		 * @return
+		 */
+		public synchronized long getStopped(StopReason reason) {
+			return stopReasons[reason.ordinal()];
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder summary = new StringBuilder();
+			summary.append("trainings: ").append(trainings).append(", iterations: ").append(iterations).append(", mutations: ").append(mutations);
+			summary.append(", samples/s: ").append((time == 0)?0:Math.round(samples * 1e9 / time));
+			summary.append(", forward: ").append(forwardTime/1000000).append(" ms, backward: ").append(backwardTime/1000000).append(" ms");
+			for (StopReason reason : StopReason.values()) {
+				summary.append(", ").append(reason).append(": ").append(stopReasons[reason.ordinal()]);
+			}
+			return summary.toString();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * Vantage-point tree over rows of training data for exact nearest-neighbour search
+ * Every inner node has a vantage point and a radius, rows closer to the vantage point than the radius are in the inner subtree,
+ * the others in the outer subtree. Leaves hold up to leafSize rows which are scanned.
+ * Nodes are stored in flat arrays, ids of rows are reordered so that every subtree is one range of the ids array.
+ * @author Tonda Kozk
+ *
+ */
+public class VPTree {
+	private static double MARGIN = 1e-9; // tolerance of the triangle inequality for rounding of distances
+
+	private double[][] rows;
+	private int dimensions; // number of features used for the distance
+	private int leafSize;
+
+	private int[] ids; // ids of rows, every node holds a range of the array
+	private int[] nodeFrom; // first position of the node in ids (vantage point of an inner node)
+	private int[] nodeTo; // position after the last row of the node
+	private double[] nodeRadius; // median distance from the vantage point, -1 for leaves
+	private int[] nodeInner; // id of the inner subtree
+	private int[] nodeOuter; // id of the outer subtree
+	private int nodesNum = 0;
+
+	/**
+	 * Build the tree
+	 * @param rows training data
+	 * @param dimensions number of features (the first dimensions items of a row)
+	 * @param leafSize max number of rows in a leaf
+	 */
+	public VPTree(double[][] rows, int dimensions, int leafSize) {
+		this.rows = rows;
+		this.dimensions = dimensions;
+		this.leafSize = Math.max(1, leafSize);
+
+		ids = new int[rows.length];
+		for (int id = 0; id < rows.length; id++) {
+			ids[id] = id;
+		}
+		int capacity = 2*rows.length/this.leafSize + 1;
+		nodeFrom = new int[capacity];
+		nodeTo = new int[capacity];
+		nodeRadius = new double[capacity];
+		nodeInner = new int[capacity];
+		nodeOuter = new int[capacity];
+
+		build(0, rows.length, new double[rows.length]);
+	}
+
+	/**
+	 * Build subtree for rows in ids[from, to)
+	 * @param from
+	 * @param to
+	 * @param distances buffer for distances from vantage points
+	 * @return id of the node
+	 */
+	private int build(int from, int to, double[] distances) {
+		if (nodesNum == nodeFrom.length) {
+			int capacity = 2*nodesNum;
+			nodeFrom = Arrays.copyOf(nodeFrom, capacity);
+			nodeTo = Arrays.copyOf(nodeTo, capacity);
+			nodeRadius = Arrays.copyOf(nodeRadius, capacity);
+			nodeInner = Arrays.copyOf(nodeInner, capacity);
+			nodeOuter = Arrays.copyOf(nodeOuter, capacity);
+		}
+		int node = nodesNum++;
+		nodeFrom[node] = from;
+		nodeTo[node] = to;
+		if (to - from <= leafSize) {
+			nodeRadius[node] = -1;
+			return node;
+		}
+
+		// the vantage point is the first row of the range, other rows are split by median distance from it
+		double[] vantage = rows[ids[from]];
+		for (int position = from+1; position < to; position++) {
+			distances[position] = distance(vantage, rows[ids[position]]);
+		}
+		int median = (from+1 + to) / 2;
+		select(from+1, to, median, distances);
+		nodeRadius[node] = distances[median];
+
+		// the arrays can be reallocated while the subtrees are built, so ids of subtrees are saved after that
+		int inner = build(from+1, median, distances);
+		int outer = build(median, to, distances);
+		nodeInner[node] = inner;
+		nodeOuter[node] = outer;
+		return node;
+	}
+
+	/**
+	 * Reorder ids[from, to) (and their distances) so that the position k holds the row with k-th smallest distance,
+	 * rows before it have smaller or equal distance and rows after it bigger or equal distance
+	 * @param from
+	 * @param to
+	 * @param k
+	 * @param distances
+	 */
+	private void select(int from, int to, int k, double[] distances) {
+		int low = from;
+		int high = to-1;
+		while (low < high) {
+			double pivot = distances[(low+high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (distances[i] < pivot) {
+					i++;
+				}
+				while (distances[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j, distances);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				high = j;
+			} else if (k >= i) {
+				low = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Swap two positions of ids and distances
+	 * @param i
+	 * @param j
+	 * @param distances
+	 */
+	private void swap(int i, int j, double[] distances) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+	}
+
+	/**
+	 * Return Euclidean distance of two rows
+	 * @param input1
+	 * @param input2
+	 * @return
+	 */
+	private double distance(double[] input1, double[] input2) {
+		return Math.sqrt(Vectors.squaredDistance(input1, input2, dimensions));
+	}
+
+	/**
+	 * Return id of the nearest row (the lowest id if more rows have the same distance)
+	 * @param query
+	 * @return id of the row or -1 if the tree is empty
+	 */
+	public int nearest(double[] query) {
+		int[] nearestIds = new int[1];
+		double[] nearestDistances = new double[1];
+		return (nearest(query, 1, nearestIds, nearestDistances) == 0)?-1:nearestIds[0];
+	}
+
+	/**
+	 * Find k nearest rows, rows are ordered by distance (and by id if they have the same distance)
+	 * @param query
+	 * @param k
+	 * @param nearestIds ids of the nearest rows (at least k items)
+	 * @param nearestDistances distances of the nearest rows (at least k items)
+	 * @return number of rows found (k or less if the tree has less rows)
+	 */
+	public int nearest(double[] query, int k, int[] nearestIds, double[] nearestDistances) {
+		NeighbourHeap heap = new NeighbourHeap(k);
+		nearest(query, heap);
+		return heap.sorted(nearestIds, nearestDistances);
+	}
+
+	/**
+	 * Find the nearest rows, the heap is cleared and then it holds the nearest rows (as many as its size)
+	 * @param query
+	 * @param heap
+	 */
+	public void nearest(double[] query, NeighbourHeap heap) {
+		heap.clear();
+		if (rows.length > 0) {
+			search(0, query, heap);
+		}
+	}
+
+	/**
+	 * Search the subtree, rows closer than the worst row of the heap are added to the heap
+	 * @param node
+	 * @param query
+	 * @param heap
+	 */
+	private void search(int node, double[] query, NeighbourHeap heap) {
+		if (nodeRadius[node] < 0) { // leaf
+			for (int position = nodeFrom[node]; position < nodeTo[node]; position++) {
+				heap.offer(ids[position], distance(query, rows[ids[position]]));
+			}
+			return;
+		}
+
+		int vantageId = ids[nodeFrom[node]];
+		double distance = distance(query, rows[vantageId]);
+		heap.offer(vantageId, distance);
+
+		// search the subtree on the side of the query first, the other one only if it can hold a closer row
+		double radius = nodeRadius[node];
+		if (distance < radius) {
+			search(nodeInner[node], query, heap);
+			if (distance + heap.bound()*(1+MARGIN) + MARGIN >= radius) {
+				search(nodeOuter[node], query, heap);
+			}
+		} else {
+			search(nodeOuter[node], query, heap);
+			if (distance - heap.bound()*(1+MARGIN) - MARGIN <= radius) {
+				search(nodeInner[node], query, heap);
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Kernels for the inner loops of the classifiers - dot product, update of a row of weights and squared distance
+ * Sums are computed in four independent accumulators, so the additions don't wait for each other and the JIT compiler
+ * can keep more of them in flight (and use SIMD instructions)
+ * Updates of rows are unrolled the same way, four items in one step, items don't depend on each other, so the results
+ * are the same as in the simple loop
+ * @author Tonda Kozk
+ *
+ */
+public class Vectors {
+
+	/**
+	 * Return dot product of a[aFrom, aFrom+length) and b[bFrom, bFrom+length)
+	 * @param a
+	 * @param aFrom
+	 * @param b
+	 * @param bFrom
+	 * @param length
+	 * @return
+	 */
+	public static double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int id = 0;
+		for (; id + 3 < length; id += 4) {
+			sum0 += a[aFrom + id] * b[bFrom + id];
+			sum1 += a[aFrom + id+1] * b[bFrom + id+1];
+			sum2 += a[aFrom + id+2] * b[bFrom + id+2];
+			sum3 += a[aFrom + id+3] * b[bFrom + id+3];
+		}
+		for (; id < length; id++) {
+			sum0 += a[aFrom + id] * b[bFrom + id];
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Update one row of weights: weights[from+i] += change*input[i]
+	 * @param weights
+	 * @param from position of the row in the block of weights
+	 * @param change
+	 * @param input
+	 * @param length
+	 */
+	public static void updateRow(double[] weights, int from, double change, double[] input, int length) {
+		int id = 0;
+		for (; id + 3 < length; id += 4) {
+			weights[from + id] += change * input[id];
+			weights[from + id+1] += change * input[id+1];
+			weights[from + id+2] += change * input[id+2];
+			weights[from + id+3] += change * input[id+3];
+		}
+		for (; id < length; id++) {
+			weights[from + id] += change * input[id];
+		}
+	}
+
+	/**
+	 * Add scaled row to the target: target[i] += scale*x[xFrom+i]
+	 * @param target
+	 * @param scale
+	 * @param x
+	 * @param xFrom
+	 * @param length
+	 */
+	public static void addScaled(double[] target, double scale, double[] x, int xFrom, int length) {
+		int id = 0;
+		for (; id + 3 < length; id += 4) {
+			target[id] += scale * x[xFrom + id];
+			target[id+1] += scale * x[xFrom + id+1];
+			target[id+2] += scale * x[xFrom + id+2];
+			target[id+3] += scale * x[xFrom + id+3];
+		}
+		for (; id < length; id++) {
+			target[id] += scale * x[xFrom + id];
+		}
+	}
+
+	/**
+	 * Return squared Euclidean distance of the first length items of a and b
+	 * @param a
+	 * @param b
+	 * @param length
+	 * @return
+	 */
+	public static double squaredDistance(double[] a, double[] b, int length) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int id = 0;
+		for (; id + 3 < length; id += 4) {
+			double diff0 = a[id] - b[id];
+			double diff1 = a[id+1] - b[id+1];
+			double diff2 = a[id+2] - b[id+2];
+			double diff3 = a[id+3] - b[id+3];
+			sum0 += diff0 * diff0;
+			sum1 += diff1 * diff1;
+			sum2 += diff2 * diff2;
+			sum3 += diff3 * diff3;
+		}
+		for (; id < length; id++) {
+			double diff = a[id] - b[id];
+			sum0 += diff * diff;
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+}